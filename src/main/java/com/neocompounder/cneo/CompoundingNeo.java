@@ -1,5 +1,6 @@
 package com.neocompounder.cneo;
 
+import com.neocompounder.cneo.interfaces.BurgerNeoContract;
 import com.neocompounder.cneo.interfaces.CompoundingNeoVoterContract;
 import com.neocompounder.cneo.interfaces.FlamingoSwapFactoryContract;
 import com.neocompounder.cneo.interfaces.FlamingoSwapRouterContract;
@@ -8,6 +9,7 @@ import io.neow3j.devpack.ByteString;
 import io.neow3j.devpack.Contract;
 import io.neow3j.devpack.Hash160;
 import io.neow3j.devpack.Helper;
+import io.neow3j.devpack.Iterator;
 import io.neow3j.devpack.List;
 import io.neow3j.devpack.Runtime;
 import io.neow3j.devpack.Storage;
@@ -24,11 +26,14 @@ import io.neow3j.devpack.annotations.Safe;
 import io.neow3j.devpack.annotations.Struct;
 import io.neow3j.devpack.annotations.SupportedStandard;
 import io.neow3j.devpack.constants.CallFlags;
+import io.neow3j.devpack.constants.FindOptions;
 import io.neow3j.devpack.constants.NeoStandard;
 import io.neow3j.devpack.contracts.ContractManagement;
 import io.neow3j.devpack.contracts.FungibleToken;
 import io.neow3j.devpack.contracts.GasToken;
+import io.neow3j.devpack.contracts.LedgerContract;
 import io.neow3j.devpack.contracts.NeoToken;
+import io.neow3j.devpack.contracts.StdLib;
 import io.neow3j.devpack.events.Event1Arg;
 import io.neow3j.devpack.events.Event2Args;
 import io.neow3j.devpack.events.Event3Args;
@@ -70,15 +75,57 @@ public class CompoundingNeo {
     private static final int DECIMALS() { return 8; }
     private static final String SYMBOL() { return "cNEO"; }
     private static final String BALANCE_OF() { return "balanceOf"; }
+    // Upper bound on the number of entries handled by batch methods
+    private static final int MAX_BATCH_SIZE() { return 500; }
+    // Upper bound on the number of voters, since compound calls every one of them
+    private static final int MAX_VOTERS() { return 16; }
+    // Upper bound on whitelisted swap routes and their hops, since compound quotes every route
+    private static final int MAX_SWAP_ROUTES() { return 8; }
+    private static final int MAX_SWAP_PATH_LENGTH() { return 4; }
+    // Pool observations are kept in a ring buffer, at most one per OBSERVATION_PERIOD
+    private static final int MAX_POOL_OBSERVATIONS() { return 8; }
+    private static final int OBSERVATION_PERIOD() { return 900000; }
+    // How far the price of a new observation may move from the price at the running average reserves
+    private static final int MAX_OBSERVATION_DEVIATION_BASIS_POINTS() { return 500; }
+    // Reserve ratio snapshots are kept in a ring buffer, one per compound
+    private static final int MAX_RATIO_SNAPSHOTS() { return 512; }
+
+    // Payload actions
+    private static final String MINT_ACTION() { return "MINT"; }
+    private static final String ZAP_ACTION() { return "ZAP"; }
+    private static final String REDEEM_NEO_ACTION() { return "REDEEM_NEO"; }
+    private static final String QUEUE_ACTION() { return "QUEUE"; }
 
     // Keys
     private static final byte[] OWNER_KEY() { return new byte[]{0x00}; }
     private static final byte[] SUPPLY_KEY() { return new byte[]{0x01}; }
+    private static final byte[] LAST_COMPOUNDED_KEY() { return new byte[]{0x06}; }
+    private static final byte[] APPROVED_SWAP_QUANTITY_KEY() { return new byte[]{0x0e}; }
+    private static final byte[] CONFIG_KEY() { return new byte[]{0x15}; }
+    private static final byte[] BNEO_RESERVES_KEY() { return new byte[]{0x16}; }
+    private static final byte[] VOTER_COUNT_KEY() { return new byte[]{0x17}; }
+    private static final byte[] NEO_RESERVES_KEY() { return new byte[]{0x18}; }
+    private static final byte[] NEXT_SWAP_ROUTE_ID_KEY() { return new byte[]{0x1c}; }
+    private static final byte[] SWAP_ROUTE_COUNT_KEY() { return new byte[]{0x1d}; }
+    private static final byte[] PENDING_SWAP_GAS_KEY() { return new byte[]{0x1e}; }
+    private static final byte[] LAST_TRANCHE_INDEX_KEY() { return new byte[]{0x1f}; }
+    private static final byte[] POOL_OBSERVATION_COUNT_KEY() { return new byte[]{0x21}; }
+    // Id of the oldest unfilled withdrawal ticket and of the next ticket to be queued
+    private static final byte[] WITHDRAWAL_QUEUE_HEAD_KEY() { return new byte[]{0x23}; }
+    private static final byte[] WITHDRAWAL_QUEUE_TAIL_KEY() { return new byte[]{0x24}; }
+    private static final byte[] STATS_KEY() { return new byte[]{0x25}; }
+    private static final byte[] RATIO_SNAPSHOT_COUNT_KEY() { return new byte[]{0x26}; }
+    // bNEO owed to contract beneficiaries of filled withdrawal tickets, held apart from the reserves
+    private static final byte[] CLAIMABLE_WITHDRAWALS_KEY() { return new byte[]{0x2a}; }
+    // Position of the oldest skipped withdrawal ticket to retry and of the next one to be skipped
+    private static final byte[] SKIPPED_WITHDRAWAL_HEAD_KEY() { return new byte[]{0x2c}; }
+    private static final byte[] SKIPPED_WITHDRAWAL_TAIL_KEY() { return new byte[]{0x2d}; }
+
+    // Legacy keys, only read when migrating to CONFIG_KEY
     private static final byte[] MAX_SUPPLY_KEY() { return new byte[]{0x02}; }
     private static final byte[] BNEO_HASH_KEY() { return new byte[]{0x03}; }
     private static final byte[] SWAP_FACTORY_HASH_KEY() { return new byte[]{0x04}; }
     private static final byte[] SWAP_ROUTER_HASH_KEY() { return new byte[]{0x05}; }
-    private static final byte[] LAST_COMPOUNDED_KEY() { return new byte[]{0x06}; }
     private static final byte[] COMPOUND_PERIOD_KEY() { return new byte[]{0x07}; }
     private static final byte[] FEE_BASIS_POINTS_KEY() { return new byte[]{0x08}; }
     private static final byte[] GAS_REWARD_KEY() { return new byte[]{0x09}; }
@@ -86,11 +133,30 @@ public class CompoundingNeo {
     private static final byte[] MAX_GAS_REWARD_KEY() { return new byte[]{0x0b}; }
     private static final byte[] MAX_FEE_BASIS_POINTS_KEY() { return new byte[]{0x0c}; }
     private static final byte[] MAX_SLIPPAGE_BASIS_POINTS_KEY() { return new byte[]{0x0d}; }
-    private static final byte[] APPROVED_SWAP_QUANTITY_KEY() { return new byte[]{0x0e}; }
     private static final byte[] MAX_SWAP_GAS_KEY() { return new byte[]{0x10}; }
     private static final byte[] EXIT_FEE_KEY() { return new byte[]{0x11}; }
+    private static final byte[] BNEO_MULTIPLIER_KEY() { return new byte[]{0x13}; }
+    private static final byte[] SWAP_PAIR_HASH_KEY() { return new byte[]{0x14}; }
 
     private static StorageMap BALANCE_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x12}); }
+    // Voter hash -> NEO tracked in that voter
+    private static StorageMap VOTER_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x19}); }
+    // Swap route id -> SwapRoute
+    private static StorageMap SWAP_ROUTE_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x1a}); }
+    // Swap pair hash -> number of whitelisted routes that send GAS to that pair
+    private static StorageMap APPROVED_FIRST_PAIR_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x1b}); }
+    // Swap pair hash -> number of whitelisted routes that receive bNEO from that pair
+    private static StorageMap APPROVED_LAST_PAIR_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x28}); }
+    // Contract beneficiary -> bNEO it can claim from filled withdrawal tickets
+    private static StorageMap CLAIMABLE_WITHDRAWAL_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x29}); }
+    // Ring buffer slot -> PoolObservation
+    private static StorageMap POOL_OBSERVATION_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x20}); }
+    // Withdrawal ticket id -> WithdrawalTicket
+    private static StorageMap WITHDRAWAL_QUEUE_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x22}); }
+    // Retry position -> id of a withdrawal ticket skipped for its minOut
+    private static StorageMap SKIPPED_WITHDRAWAL_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x2b}); }
+    // Ring buffer slot -> RatioSnapshot
+    private static StorageMap RATIO_SNAPSHOT_MAP() { return new StorageMap(Storage.getStorageContext(), new byte[]{0x27}); }
 
     // Events
     @DisplayName("Mint")
@@ -120,6 +186,39 @@ public class CompoundingNeo {
     @DisplayName("ConvertToBneo")
     private static Event1Arg<Integer> onConvertToBneo;
 
+    @DisplayName("ReconcileBneoReserves")
+    private static Event2Args<Integer, Integer> onReconcileBneoReserves;
+
+    @DisplayName("ReconcileNeoReserves")
+    private static Event2Args<Integer, Integer> onReconcileNeoReserves;
+
+    @DisplayName("SwapPendingGas")
+    private static Event3Args<Hash160, Integer, Integer> onSwapPendingGas;
+
+    @DisplayName("SkipSwap")
+    private static Event2Args<Integer, Integer> onSkipSwap;
+
+    @DisplayName("ObservePool")
+    private static Event2Args<Integer, Integer> onObservePool;
+
+    @DisplayName("Rebalance")
+    private static Event2Args<Integer, Integer> onRebalance;
+
+    @DisplayName("QueueWithdrawal")
+    private static Event3Args<Integer, Hash160, Integer> onQueueWithdrawal;
+
+    @DisplayName("FillWithdrawal")
+    private static Event3Args<Integer, Hash160, Integer> onFillWithdrawal;
+
+    @DisplayName("SkipWithdrawal")
+    private static Event2Args<Integer, Integer> onSkipWithdrawal;
+
+    @DisplayName("CancelWithdrawal")
+    private static Event3Args<Integer, Hash160, Integer> onCancelWithdrawal;
+
+    @DisplayName("ClaimWithdrawal")
+    private static Event2Args<Hash160, Integer> onClaimWithdrawal;
+
     // State Changes
     @DisplayName("SetFeeBasisPoints")
     private static Event1Arg<Integer> onSetFeeBasisPoints;
@@ -130,6 +229,15 @@ public class CompoundingNeo {
     @DisplayName("SetMaxSwapGas")
     private static Event1Arg<Integer> onSetMaxSwapGas;
 
+    @DisplayName("SetMaxTrancheBasisPoints")
+    private static Event1Arg<Integer> onSetMaxTrancheBasisPoints;
+
+    @DisplayName("SetTwapWindow")
+    private static Event1Arg<Integer> onSetTwapWindow;
+
+    @DisplayName("SetBufferBasisPoints")
+    private static Event2Args<Integer, Integer> onSetBufferBasisPoints;
+
     @DisplayName("SetExitFee")
     private static Event1Arg<Integer> onSetExitFee;
 
@@ -139,6 +247,9 @@ public class CompoundingNeo {
     @DisplayName("SetCompoundPeriod")
     private static Event1Arg<Integer> onSetCompoundPeriod;
 
+    @DisplayName("SetCompoundPeriodController")
+    private static Event3Args<Integer, Integer, Integer> onSetCompoundPeriodController;
+
     @DisplayName("SetOwner")
     private static Event1Arg<Hash160> onSetOwner;
 
@@ -153,10 +264,248 @@ public class CompoundingNeo {
 
     @DisplayName("SetBneoScriptHash")
     private static Event1Arg<Hash160> onSetBneoScriptHash;
+
+    @DisplayName("SetSwapPairScriptHash")
+    private static Event1Arg<Hash160> onSetSwapPairScriptHash;
+
+    @DisplayName("SetVoteNeoDeposits")
+    private static Event1Arg<Boolean> onSetVoteNeoDeposits;
+
+    @DisplayName("AddVoter")
+    private static Event1Arg<Hash160> onAddVoter;
+
+    @DisplayName("RemoveVoter")
+    private static Event1Arg<Hash160> onRemoveVoter;
+
+    @DisplayName("AddSwapRoute")
+    private static Event2Args<Integer, Hash160[]> onAddSwapRoute;
+
+    @DisplayName("RemoveSwapRoute")
+    private static Event1Arg<Integer> onRemoveSwapRoute;
     
+    /**
+     * Optional transfer data selecting an action other than the default for the incoming token
+     * MINT: mint the cNEO for incoming NEO or bNEO to the beneficiary, failing if fewer than minOut cNEO are minted
+     * ZAP: swap incoming GAS for bNEO and mint the cNEO to the beneficiary, failing if fewer than minOut cNEO are minted
+     * REDEEM_NEO: burn incoming cNEO and pay the beneficiary in NEO, failing if fewer than minOut NEO are paid
+     * QUEUE: escrow incoming cNEO until processWithdrawals pays the beneficiary in bNEO, skipping the ticket if fewer than minOut bNEO would be paid
+     */
     @Struct
     static class NEP17Payload {
         String action;
+        Hash160 beneficiary;
+        int minOut;
+    }
+
+    /**
+     * Reserves and supply read once and shared by every computation in an invocation
+     */
+    @Struct
+    static class ReserveSnapshot {
+        int bneoReserves;
+        int neoReserves;
+        int totalReserves;
+        int cneoSupply;
+
+        ReserveSnapshot(int bneoReserves, int neoReserves, int totalReserves, int cneoSupply) {
+            this.bneoReserves = bneoReserves;
+            this.neoReserves = neoReserves;
+            this.totalReserves = totalReserves;
+            this.cneoSupply = cneoSupply;
+        }
+    }
+
+    /**
+     * An owner-whitelisted GAS to bNEO swap path through intermediate tokens
+     * The first and last pairs are the only ones we exchange tokens with directly
+     */
+    @Struct
+    static class SwapRoute {
+        int id;
+        Hash160[] path;
+        Hash160 firstPairHash;
+        Hash160 lastPairHash;
+    }
+
+    /**
+     * A swap path together with the bNEO it is quoted to return
+     */
+    @Struct
+    static class SwapQuote {
+        Hash160[] path;
+        int bneoQuantity;
+
+        SwapQuote(Hash160[] path, int bneoQuantity) {
+            this.path = path;
+            this.bneoQuantity = bneoQuantity;
+        }
+    }
+
+    /**
+     * A cNEO holder and its balance
+     */
+    @Struct
+    static class Holder {
+        Hash160 account;
+        int balance;
+
+        Holder(Hash160 account, int balance) {
+            this.account = account;
+            this.balance = balance;
+        }
+    }
+
+    /**
+     * One page of cNEO holders in storage order
+     */
+    @Struct
+    static class HolderPage {
+        List<Holder> holders;
+        // The account to start the next page from, null on the last page
+        Hash160 nextKey;
+    }
+
+    /**
+     * The outcome of a mint or redeem computed with the same code as the real operation
+     */
+    @Struct
+    static class Quote {
+        // cNEO minted or bNEO redeemed
+        int quantity;
+        // NEO that would be converted to bNEO along the way, 0 if none
+        int neoToConvert;
+
+        Quote(int quantity, int neoToConvert) {
+            this.quantity = quantity;
+            this.neoToConvert = neoToConvert;
+        }
+    }
+
+    /**
+     * Supply, reserves and compound timing read from a single snapshot
+     */
+    @Struct
+    static class State {
+        int totalSupply;
+        int bneoReserves;
+        int neoReserves;
+        int totalReserves;
+        // GAS owned by the treasury, excluding pendingSwapGas
+        int gasReserves;
+        int pendingSwapGas;
+        int reserveRatio;
+        int lastCompounded;
+        int compoundPeriod;
+        // The earliest time compound may be called
+        int nextCompound;
+    }
+
+    /**
+     * Lifetime totals kept up to date by every mint, burn, compound and swap
+     */
+    @Struct
+    static class Stats {
+        int totalMinted;
+        int totalBurned;
+        // GAS claimed from the voters and bNEO by compound
+        int gasClaimed;
+        // bNEO received for GAS swapped out of the reserves
+        int bneoBought;
+        int treasuryCut;
+        // bNEO kept in the reserves by the exit fee
+        int exitFeesRetained;
+        int compoundCount;
+    }
+
+    /**
+     * The reserve ratio and cNEO supply right after a compound
+     */
+    @Struct
+    static class RatioSnapshot {
+        int timestamp;
+        int reserveRatio;
+        int cneoSupply;
+    }
+
+    /**
+     * A request to redeem escrowed cNEO for bNEO, filled in FIFO order by processWithdrawals
+     */
+    @Struct
+    static class WithdrawalTicket {
+        int id;
+        Hash160 beneficiary;
+        int cneoQuantity;
+        int requestedAt;
+        // The account that escrowed the cNEO and may cancel the ticket
+        Hash160 owner;
+        // The least bNEO the ticket may be filled with
+        int minOut;
+    }
+
+    /**
+     * GAS-bNEO pool reserves seen at a point in time, together with the reserves
+     * accumulated over time since the first observation
+     */
+    @Struct
+    static class PoolObservation {
+        int timestamp;
+        int gasReserve;
+        int bneoReserve;
+        int gasCumulative;
+        int bneoCumulative;
+    }
+
+    /**
+     * What a call to compound would do if it were sent now
+     */
+    @Struct
+    static class CompoundPreview {
+        // Milliseconds until compound may be called, 0 if it may be called now
+        int timeUntilCompound;
+        int claimableGas;
+        int treasuryCut;
+        // Whether some GAS would stay pending for a later tranche
+        boolean clipped;
+        // The tranche swapped by this compound, taken from the pending GAS
+        int gasToSwap;
+        int expectedBneoOut;
+    }
+
+    /**
+     * All tunables and dependency hashes, stored under a single key
+     * so that hot paths pay for one storage read per invocation
+     * New fields must be added at the end so that extendConfig can fill them in on update
+     */
+    @Struct
+    static class Config {
+        Hash160 bneoHash;
+        Hash160 voterHash;
+        Hash160 swapFactoryHash;
+        Hash160 swapRouterHash;
+        Hash160 swapPairHash;
+        int bneoMultiplier;
+        int compoundPeriod;
+        int feeBasisPoints;
+        int maxFeeBasisPoints;
+        int gasReward;
+        int maxGasReward;
+        int maxSlippageBasisPoints;
+        int maxSwapGas;
+        int exitFee;
+        int maxSupply;
+        boolean voteNeoDeposits;
+        // Largest tranche as a share of the pool GAS reserve, 0 to only cap tranches by maxSwapGas
+        int maxTrancheBasisPoints;
+        // GAS each compound should swap, 0 to keep the compound period fixed
+        int targetSwapGas;
+        int minCompoundPeriod;
+        int maxCompoundPeriod;
+        // History the pool observations must span before swaps are bounded by them, 0 to bound swaps by spot reserves
+        int twapWindow;
+        // Share of total reserves to hold as bNEO, 0 to leave the NEO/bNEO split to the owner
+        int targetBufferBasisPoints;
+        // How far the bNEO share may drift from the target before it is rebalanced
+        int bufferToleranceBasisPoints;
     }
     
     // Lifecycle Methods
@@ -170,6 +519,23 @@ public class CompoundingNeo {
             StorageContext ctx = CTX();
             Storage.put(ctx, OWNER_KEY(), owner);
             mint(owner, INITIAL_SUPPLY());
+        } else {
+            // Contracts deployed before the packed config need their values carried over once
+            if (Storage.get(RTX(), CONFIG_KEY()) == null) {
+                migrateConfig();
+            } else {
+                // Configs stored before fields were added to Config get those fields' defaults
+                extendConfig();
+            }
+            // Contracts deployed before the bNEO ledger start it from the actual balance
+            if (Storage.get(RTX(), BNEO_RESERVES_KEY()) == null) {
+                Storage.put(CTX(), BNEO_RESERVES_KEY(), getActualBneoBalance(getConfig()));
+            }
+            // Contracts deployed before the voter registry start it with their single voter
+            Hash160 voterHash = getConfig().voterHash;
+            if (Storage.get(RTX(), VOTER_COUNT_KEY()) == null && !voterHash.isZero()) {
+                registerVoter(voterHash);
+            }
         }
     }
 
@@ -202,59 +568,221 @@ public class CompoundingNeo {
         return Storage.getHash160(RTX(), OWNER_KEY());
     }
 
+    /**
+     * Read every tunable and dependency hash in a single call
+     *
+     * @return the packed configuration record
+     */
+    @Safe
+    public static Config getConfig() {
+        final ByteString storageVal = Storage.get(RTX(), CONFIG_KEY());
+        return storageVal == null ? createDefaultConfig() : (Config) (new StdLib()).deserialize(storageVal);
+    }
+
     public static void setVoterScriptHash(Hash160 voterHash) {
         validateOwner("setVoterScriptHash");
         validateContract(voterHash, "voterHash");
 
-        Storage.put(CTX(), VOTER_HASH_KEY(), voterHash);
+        Config config = getConfig();
+        config.voterHash = voterHash;
+        putConfig(config);
+
+        // The primary voter is always part of the voter registry
+        if (!isVoter(voterHash)) {
+            registerVoter(voterHash);
+        }
     }
 
+    /**
+     * The primary voter, which cannot be removed from the voter registry
+     *
+     * @return the primary voter
+     */
     @Safe
     public static Hash160 getVoterScriptHash() {
-        final Hash160 storageVal = Storage.getHash160(RTX(), VOTER_HASH_KEY());
-        return storageVal == null ? Hash160.zero() : storageVal;
+        return getConfig().voterHash;
+    }
+
+    /**
+     * Add a voter to the registry so that it receives NEO and is claimed from in compound
+     *
+     * @param voterHash the CompoundingNeoVoter to add
+     */
+    public static void addVoter(Hash160 voterHash) {
+        validateOwner("addVoter");
+        validateContract(voterHash, "voterHash");
+        assert !isVoter(voterHash);
+
+        registerVoter(voterHash);
+    }
+
+    /**
+     * Remove a voter from the registry, first withdrawing all of its NEO as bNEO
+     *
+     * @param voterHash the CompoundingNeoVoter to remove
+     */
+    public static void removeVoter(Hash160 voterHash) {
+        validateOwner("removeVoter");
+        assert isVoter(voterHash);
+        assert !voterHash.equals(getConfig().voterHash);
+
+        int neoQuantity = getVoterNeoReserves(voterHash);
+        if (neoQuantity > 0) {
+            withdrawFromVoter(voterHash, neoQuantity, null);
+        }
+
+        VOTER_MAP().delete(voterHash.toByteArray());
+        Storage.put(CTX(), VOTER_COUNT_KEY(), getVoterCount() - 1);
+        onRemoveVoter.fire(voterHash);
+    }
+
+    @Safe
+    public static List<Hash160> getVoterScriptHashes() {
+        return getVoters();
+    }
+
+    /**
+     * @param voterHash a registered voter
+     * @return the NEO tracked in the voter
+     */
+    @Safe
+    public static int getVoterNeoReserves(Hash160 voterHash) {
+        return VOTER_MAP().getIntOrZero(voterHash.toByteArray());
     }
 
     public static void setBneoScriptHash(Hash160 bneoHash) {
         validateOwner("setBneoScriptHash");
         validateContract(bneoHash, "bneoHash");
 
-        Storage.put(CTX(), BNEO_HASH_KEY(), bneoHash);
+        Config config = getConfig();
+        config.bneoHash = bneoHash;
+        // bNEO decimals never change, so we resolve the multiplier once here
+        config.bneoMultiplier = computeBneoMultiplier(bneoHash);
         onSetBneoScriptHash.fire(bneoHash);
+        refreshSwapPairScriptHash(config);
+        putConfig(config);
     }
 
     @Safe
     public static Hash160 getBneoScriptHash() {
-        final Hash160 storageVal = Storage.getHash160(RTX(), BNEO_HASH_KEY());
-        return storageVal == null ? Hash160.zero() : storageVal;
+        return getConfig().bneoHash;
     }
 
     public static void setSwapFactoryScriptHash(Hash160 swapFactoryHash) {
         validateOwner("setSwapFactoryScriptHash");
         validateContract(swapFactoryHash, "swapFactoryHash");
 
-        Storage.put(CTX(), SWAP_FACTORY_HASH_KEY(), swapFactoryHash);
+        Config config = getConfig();
+        config.swapFactoryHash = swapFactoryHash;
         onSetSwapFactoryScriptHash.fire(swapFactoryHash);
+        refreshSwapPairScriptHash(config);
+        putConfig(config);
     }
 
     @Safe
     public static Hash160 getSwapFactoryScriptHash() {
-        final Hash160 storageVal = Storage.getHash160(RTX(), SWAP_FACTORY_HASH_KEY());
-        return storageVal == null ? Hash160.zero() : storageVal;
+        return getConfig().swapFactoryHash;
+    }
+
+    /**
+     * Re-resolve the GAS-bNEO swap pair through the swap factory
+     * in case Flamingo migrates the pair without changing the factory
+     */
+    public static void updateSwapPairScriptHash() {
+        validateOwner("updateSwapPairScriptHash");
+
+        Config config = getConfig();
+        refreshSwapPairScriptHash(config);
+        putConfig(config);
+    }
+
+    @Safe
+    public static Hash160 getSwapPairScriptHash() {
+        return getConfig().swapPairHash;
+    }
+
+    /**
+     * Whitelist a multi-hop GAS to bNEO path for compounding
+     * The direct GAS-bNEO pair is always considered and does not need to be added
+     *
+     * @param path the tokens to swap through, starting with GAS and ending with bNEO
+     */
+    public static void addSwapRoute(Hash160[] path) {
+        validateOwner("addSwapRoute");
+        Config config = getConfig();
+        GasToken gasContract = new GasToken();
+        assert path.length > 2 && path.length <= MAX_SWAP_PATH_LENGTH();
+        assert path[0].equals(gasContract.getHash());
+        assert path[path.length - 1].equals(config.bneoHash);
+        assert getSwapRouteCount() < MAX_SWAP_ROUTES();
+
+        List<SwapRoute> routes = getSwapRoutesInternal();
+        for (int i = 0; i < routes.size(); i++) {
+            assert !isSamePath(routes.get(i).path, path);
+        }
+
+        FlamingoSwapFactoryContract swapFactoryContract = new FlamingoSwapFactoryContract(config.swapFactoryHash);
+        for (int i = 0; i < path.length - 1; i++) {
+            validateContract(swapFactoryContract.getExchangePair(path[i], path[i + 1]), "swapPairHash");
+        }
+
+        int routeId = Storage.getIntOrZero(RTX(), NEXT_SWAP_ROUTE_ID_KEY()) + 1;
+        SwapRoute route = new SwapRoute();
+        route.id = routeId;
+        route.path = path;
+        route.firstPairHash = swapFactoryContract.getExchangePair(path[0], path[1]);
+        route.lastPairHash = swapFactoryContract.getExchangePair(path[path.length - 2], path[path.length - 1]);
+
+        SWAP_ROUTE_MAP().put(Helper.toByteArray(routeId), (new StdLib()).serialize(route));
+        addToApprovedPair(APPROVED_FIRST_PAIR_MAP(), route.firstPairHash, 1);
+        addToApprovedPair(APPROVED_LAST_PAIR_MAP(), route.lastPairHash, 1);
+
+        StorageContext ctx = CTX();
+        Storage.put(ctx, NEXT_SWAP_ROUTE_ID_KEY(), routeId);
+        Storage.put(ctx, SWAP_ROUTE_COUNT_KEY(), getSwapRouteCount() + 1);
+        onAddSwapRoute.fire(routeId, path);
+    }
+
+    /**
+     * Remove a whitelisted swap path so compound no longer considers it
+     * Its first and last pairs stay approved only while another route still uses them
+     *
+     * @param routeId the id the route was given by addSwapRoute
+     */
+    public static void removeSwapRoute(int routeId) {
+        validateOwner("removeSwapRoute");
+
+        StorageMap swapRouteMap = SWAP_ROUTE_MAP();
+        ByteString storageVal = swapRouteMap.get(Helper.toByteArray(routeId));
+        assert storageVal != null;
+        SwapRoute route = (SwapRoute) (new StdLib()).deserialize(storageVal);
+
+        swapRouteMap.delete(Helper.toByteArray(routeId));
+        addToApprovedPair(APPROVED_FIRST_PAIR_MAP(), route.firstPairHash, -1);
+        addToApprovedPair(APPROVED_LAST_PAIR_MAP(), route.lastPairHash, -1);
+
+        Storage.put(CTX(), SWAP_ROUTE_COUNT_KEY(), getSwapRouteCount() - 1);
+        onRemoveSwapRoute.fire(routeId);
+    }
+
+    @Safe
+    public static List<SwapRoute> getSwapRoutes() {
+        return getSwapRoutesInternal();
     }
 
     public static void setSwapRouterScriptHash(Hash160 swapRouterHash) {
         validateOwner("setSwapRouterScriptHash");
         validateContract(swapRouterHash, "swapRouterHash");
 
-        Storage.put(CTX(), SWAP_ROUTER_HASH_KEY(), swapRouterHash);
+        Config config = getConfig();
+        config.swapRouterHash = swapRouterHash;
+        putConfig(config);
         onSetSwapRouterScriptHash.fire(swapRouterHash);
     }
 
     @Safe
     public static Hash160 getSwapRouterScriptHash() {
-        final Hash160 storageVal = Storage.getHash160(RTX(), SWAP_ROUTER_HASH_KEY());
-        return storageVal == null ? Hash160.zero() : storageVal;
+        return getConfig().swapRouterHash;
     }
 
     @Safe
@@ -266,29 +794,68 @@ public class CompoundingNeo {
         validateOwner("setCompoundPeriod");
         validatePositiveNumber(compoundPeriod, "compoundPeriod");
 
-        Storage.put(CTX(), COMPOUND_PERIOD_KEY(), compoundPeriod);
+        Config config = getConfig();
+        config.compoundPeriod = compoundPeriod;
+        putConfig(config);
         onSetCompoundPeriod.fire(compoundPeriod);
     }
 
     @Safe
     public static int getCompoundPeriod() {
-        final Integer storageVal = Storage.getInt(RTX(), COMPOUND_PERIOD_KEY());
-        return storageVal == null ? INITIAL_COMPOUND_PERIOD() : storageVal;
+        return getConfig().compoundPeriod;
+    }
+
+    /**
+     * Let compound retune the compound period from the GAS observed per compound
+     * so that each compound swaps about targetSwapGas
+     *
+     * @param targetSwapGas     the GAS each compound should swap, 0 to keep the compound period fixed
+     * @param minCompoundPeriod the shortest compound period the controller may set
+     * @param maxCompoundPeriod the longest compound period the controller may set
+     */
+    public static void setCompoundPeriodController(int targetSwapGas, int minCompoundPeriod, int maxCompoundPeriod) {
+        validateOwner("setCompoundPeriodController");
+        validateNonNegativeNumber(targetSwapGas, "targetSwapGas");
+        validatePositiveNumber(minCompoundPeriod, "minCompoundPeriod");
+        assert minCompoundPeriod <= maxCompoundPeriod;
+
+        Config config = getConfig();
+        config.targetSwapGas = targetSwapGas;
+        config.minCompoundPeriod = minCompoundPeriod;
+        config.maxCompoundPeriod = maxCompoundPeriod;
+        putConfig(config);
+        onSetCompoundPeriodController.fire(targetSwapGas, minCompoundPeriod, maxCompoundPeriod);
+    }
+
+    @Safe
+    public static int getTargetSwapGas() {
+        return getConfig().targetSwapGas;
+    }
+
+    @Safe
+    public static int getMinCompoundPeriod() {
+        return getConfig().minCompoundPeriod;
+    }
+
+    @Safe
+    public static int getMaxCompoundPeriod() {
+        return getConfig().maxCompoundPeriod;
     }
 
     public static void setFeeBasisPoints(int feeBasisPoints) {
         validateOwner("setFeeBasisPoints");
         validatePositiveNumber(feeBasisPoints, "feeBasisPoints");
-        assert feeBasisPoints <= getMaxFeeBasisPoints();
+        Config config = getConfig();
+        assert feeBasisPoints <= config.maxFeeBasisPoints;
 
-        Storage.put(CTX(), FEE_BASIS_POINTS_KEY(), feeBasisPoints);
+        config.feeBasisPoints = feeBasisPoints;
+        putConfig(config);
         onSetFeeBasisPoints.fire(feeBasisPoints);
     }
 
     @Safe
     public static int getFeeBasisPoints() {
-        final Integer storageVal = Storage.getInt(RTX(), FEE_BASIS_POINTS_KEY());
-        return storageVal == null ? INITIAL_FEE_BASIS_POINTS() : storageVal;
+        return getConfig().feeBasisPoints;
     }
 
     public static void setMaxSlippageBasisPoints(int maxSlippageBasisPoints) {
@@ -296,13 +863,14 @@ public class CompoundingNeo {
         validatePositiveNumber(maxSlippageBasisPoints, "maxSlippageBasisPoints");
         assert maxSlippageBasisPoints < BASIS_POINTS();
 
-        Storage.put(CTX(), MAX_SLIPPAGE_BASIS_POINTS_KEY(), maxSlippageBasisPoints);
+        Config config = getConfig();
+        config.maxSlippageBasisPoints = maxSlippageBasisPoints;
+        putConfig(config);
     }
 
     @Safe
     public static int getMaxSlippageBasisPoints() {
-        final Integer storageVal = Storage.getInt(RTX(), MAX_SLIPPAGE_BASIS_POINTS_KEY());
-        return storageVal == null ? INITIAL_MAX_SLIPPAGE_BASIS_POINTS() : storageVal;
+        return getConfig().maxSlippageBasisPoints;
     }
 
     public static void setMaxSupply(int maxSupply) {
@@ -310,41 +878,45 @@ public class CompoundingNeo {
         validatePositiveNumber(maxSupply, "maxSupply");
         assert maxSupply >= totalSupply();
 
-        Storage.put(CTX(), MAX_SUPPLY_KEY(), maxSupply);
+        Config config = getConfig();
+        config.maxSupply = maxSupply;
+        putConfig(config);
         onSetMaxSupply.fire(maxSupply);
     }
 
     @Safe
     public static int getMaxSupply() {
-        final Integer storageVal = Storage.getInt(RTX(), MAX_SUPPLY_KEY());
-        return storageVal == null ? INITIAL_MAX_SUPPLY() : storageVal;
+        return getConfig().maxSupply;
     }
 
     public static void setGasReward(int gasReward) {
         validateOwner("setGasReward");
         validatePositiveNumber(gasReward, "gasReward");
-        assert gasReward <= getMaxGasReward();
+        Config config = getConfig();
+        assert gasReward <= config.maxGasReward;
 
-        Storage.put(CTX(), GAS_REWARD_KEY(), gasReward);
+        config.gasReward = gasReward;
+        putConfig(config);
         onSetGasReward.fire(gasReward);
     }
 
     @Safe
     public static int getGasReward() {
-        return Storage.getIntOrZero(RTX(), GAS_REWARD_KEY());
+        return getConfig().gasReward;
     }
 
     public static void setMaxGasReward(int maxGasReward) {
         validateOwner("setMaxGasReward");
         validatePositiveNumber(maxGasReward, "maxGasReward");
 
-        Storage.put(CTX(), MAX_GAS_REWARD_KEY(), maxGasReward);
+        Config config = getConfig();
+        config.maxGasReward = maxGasReward;
+        putConfig(config);
     }
 
     @Safe
     public static int getMaxGasReward() {
-        final Integer storageVal = Storage.getInt(RTX(), MAX_GAS_REWARD_KEY());
-        return storageVal == null ? INITIAL_MAX_GAS_REWARD() : storageVal;
+        return getConfig().maxGasReward;
     }
 
     public static void setMaxFeeBasisPoints(int maxFeeBasisPoints) {
@@ -352,112 +924,465 @@ public class CompoundingNeo {
         validatePositiveNumber(maxFeeBasisPoints, "maxFeeBasisPoints");
         assert maxFeeBasisPoints < 100;
 
-        Storage.put(CTX(), MAX_FEE_BASIS_POINTS_KEY(), maxFeeBasisPoints);
+        Config config = getConfig();
+        config.maxFeeBasisPoints = maxFeeBasisPoints;
+        putConfig(config);
     }
 
     @Safe
     public static int getMaxFeeBasisPoints() {
-        final Integer storageVal = Storage.getInt(RTX(), MAX_FEE_BASIS_POINTS_KEY());
-        return storageVal == null ? INITIAL_MAX_FEE_BASIS_POINTS() : storageVal;
+        return getConfig().maxFeeBasisPoints;
     }
 
     public static void setMaxSwapGas(int maxSwapGas) {
         validateOwner("setMaxSwapGas");
         validatePositiveNumber(maxSwapGas, "maxSwapGas");
 
-        Storage.put(CTX(), MAX_SWAP_GAS_KEY(), maxSwapGas);
+        Config config = getConfig();
+        config.maxSwapGas = maxSwapGas;
+        putConfig(config);
         onSetMaxSwapGas.fire(maxSwapGas);
     }
 
     @Safe
     public static int getMaxSwapGas() {
-        final Integer storageVal = Storage.getInt(RTX(), MAX_SWAP_GAS_KEY());
-        return storageVal == null ? INITIAL_MAX_SWAP_GAS() : storageVal;
+        return getConfig().maxSwapGas;
     }
 
-    public static void setExitFee(int exitFee) {
-        validateOwner("setExitFee");
-        validatePositiveNumber(exitFee, "exitFee");
+    /**
+     * Cap every swap tranche to a share of the GAS held by the GAS-bNEO pool
+     * so that price impact stays bounded as pool depth changes
+     *
+     * @param maxTrancheBasisPoints the largest tranche in basis points of the pool GAS reserve, 0 to disable
+     */
+    public static void setMaxTrancheBasisPoints(int maxTrancheBasisPoints) {
+        validateOwner("setMaxTrancheBasisPoints");
+        validateNonNegativeNumber(maxTrancheBasisPoints, "maxTrancheBasisPoints");
+        assert maxTrancheBasisPoints <= BASIS_POINTS();
 
-        Storage.put(CTX(), EXIT_FEE_KEY(), exitFee);
-        onSetExitFee.fire(exitFee);
+        Config config = getConfig();
+        config.maxTrancheBasisPoints = maxTrancheBasisPoints;
+        putConfig(config);
+        onSetMaxTrancheBasisPoints.fire(maxTrancheBasisPoints);
     }
 
     @Safe
-    public static int getExitFee() {
-        final Integer storageVal = Storage.getInt(RTX(), EXIT_FEE_KEY());
-        return storageVal == null ? INITIAL_EXIT_FEE() : storageVal;
+    public static int getMaxTrancheBasisPoints() {
+        return getConfig().maxTrancheBasisPoints;
     }
 
-    @Safe
-    public static String symbol() {
-        return SYMBOL();
+    /**
+     * Bound the bNEO out of every swap by the time-weighted average pool reserves
+     * instead of the spot reserves of the swapping transaction
+     *
+     * @param twapWindow the history in milliseconds the observations must span, 0 to use spot reserves
+     */
+    public static void setTwapWindow(int twapWindow) {
+        validateOwner("setTwapWindow");
+        validateNonNegativeNumber(twapWindow, "twapWindow");
+
+        Config config = getConfig();
+        config.twapWindow = twapWindow;
+        putConfig(config);
+        onSetTwapWindow.fire(twapWindow);
     }
-    
+
     @Safe
-    public static Integer decimals() {
-        return DECIMALS();
+    public static int getTwapWindow() {
+        return getConfig().twapWindow;
     }
-    
-    @Safe
-    public static int balanceOf(Hash160 account) {
-        validateHash160(account, "account");
-        return getBalance(account);
+
+    /**
+     * Keep a share of the reserves as bNEO so that burns rarely need to withdraw from the voters
+     * rebalance and compound move the reserves back to the target once they drift further than the tolerance
+     *
+     * @param targetBufferBasisPoints    the share of total reserves to hold as bNEO, 0 to disable rebalancing
+     * @param bufferToleranceBasisPoints how far the bNEO share may drift from the target
+     */
+    public static void setBufferBasisPoints(int targetBufferBasisPoints, int bufferToleranceBasisPoints) {
+        validateOwner("setBufferBasisPoints");
+        validateNonNegativeNumber(targetBufferBasisPoints, "targetBufferBasisPoints");
+        validateNonNegativeNumber(bufferToleranceBasisPoints, "bufferToleranceBasisPoints");
+        assert targetBufferBasisPoints <= BASIS_POINTS();
+        assert bufferToleranceBasisPoints <= BASIS_POINTS();
+
+        Config config = getConfig();
+        config.targetBufferBasisPoints = targetBufferBasisPoints;
+        config.bufferToleranceBasisPoints = bufferToleranceBasisPoints;
+        putConfig(config);
+        onSetBufferBasisPoints.fire(targetBufferBasisPoints, bufferToleranceBasisPoints);
     }
 
     @Safe
-    public static int totalSupply() {
-        return Storage.getIntOrZero(RTX(), SUPPLY_KEY());
+    public static int getTargetBufferBasisPoints() {
+        return getConfig().targetBufferBasisPoints;
     }
 
     @Safe
-    public static int getBneoReserves() {
-        FungibleToken bneoContract = new FungibleToken(getBneoScriptHash());
-        Hash160 cneoHash = Runtime.getExecutingScriptHash();
-        return bneoContract.balanceOf(cneoHash);
+    public static int getBufferToleranceBasisPoints() {
+        return getConfig().bufferToleranceBasisPoints;
     }
 
+    /**
+     * Read the stored GAS-bNEO pool observations
+     *
+     * @return the observations from oldest to newest
+     */
     @Safe
-    public static int getNeoReserves() {
-        NeoToken neoContract = new NeoToken();
-        Hash160 voterHash = getVoterScriptHash();
-        return neoContract.balanceOf(voterHash);
+    public static List<PoolObservation> getPoolObservations() {
+        List<PoolObservation> observations = new List<PoolObservation>();
+        int count = getPoolObservationCount();
+        int maxObservations = MAX_POOL_OBSERVATIONS();
+        for (int i = Math.max(count - maxObservations, 0); i < count; i++) {
+            observations.add(getPoolObservation(i));
+        }
+        return observations;
     }
 
+    /**
+     * The number of reserve ratio snapshots recorded so far, including those overwritten in the ring buffer
+     * Only the last MAX_RATIO_SNAPSHOTS of them can be read
+     *
+     * @return the index one past the newest snapshot
+     */
     @Safe
-    public static int getTotalReserves() {
-        return getTotalReservesInternal(getBneoReserves(), getNeoReserves());
+    public static int getRatioHistoryCount() {
+        return Storage.getIntOrZero(RTX(), RATIO_SNAPSHOT_COUNT_KEY());
     }
 
+    /**
+     * Read the reserve ratio snapshots recorded by compound, oldest first
+     * Snapshots that have been overwritten in the ring buffer are skipped
+     *
+     * @param fromIndex the index of the first snapshot to read
+     * @param count     the maximum number of snapshots to read
+     * @return          the snapshots from fromIndex on, at most count of them
+     */
     @Safe
-    public static int getGasReserves() {
-        GasToken gasContract = new GasToken();
-        Hash160 cneoHash = Runtime.getExecutingScriptHash();
-        return gasContract.balanceOf(cneoHash);
+    public static List<RatioSnapshot> getRatioHistory(int fromIndex, int count) {
+        validateNonNegativeNumber(fromIndex, "fromIndex");
+        validatePositiveNumber(count, "count");
+        assert count <= MAX_BATCH_SIZE();
+
+        List<RatioSnapshot> snapshots = new List<RatioSnapshot>();
+        int total = getRatioHistoryCount();
+        int start = Math.max(fromIndex, getOldestRatioSnapshotIndex(total));
+        int end = Math.min(fromIndex + count, total);
+        for (int i = start; i < end; i++) {
+            snapshots.add(getRatioSnapshot(i));
+        }
+        return snapshots;
     }
 
     /**
-     * Compute the (bNEO + NEO):cNEO ratio in this contract
+     * Find the reserve ratio snapshot in effect at a point in time
      *
-     * @return the ratio (bNEO + NEO reserves) / (cNEO supply), multiplied by {@link #FLOAT_MULTIPLIER}
+     * @param timestamp the time in milliseconds
+     * @return          the newest snapshot taken at or before timestamp,
+     *                  null if there is none left in the ring buffer
      */
     @Safe
-    public static int getReserveRatio() {
-        return getReserveRatioInternal(getBneoReserves(), getNeoReserves(), totalSupply());
+    public static RatioSnapshot getRatioAt(int timestamp) {
+        validateNonNegativeNumber(timestamp, "timestamp");
+
+        int total = getRatioHistoryCount();
+        int low = getOldestRatioSnapshotIndex(total);
+        int high = total - 1;
+        RatioSnapshot found = null;
+        while (low <= high) {
+            int mid = (low + high) / 2;
+            RatioSnapshot snapshot = getRatioSnapshot(mid);
+            if (snapshot.timestamp <= timestamp) {
+                found = snapshot;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
     }
 
-    public static boolean transfer(Hash160 from, Hash160 to, int amount, Object data) {
-        validateHash160(from, "from");
-        validateHash160(to, "to");
-        validateNonNegativeNumber(amount, "amount");
+    public static void setExitFee(int exitFee) {
+        validateOwner("setExitFee");
+        validatePositiveNumber(exitFee, "exitFee");
 
-        final int fromBalance = getBalance(from);
-        if (fromBalance < amount) {
-            return false;
-        }
-        if (!Runtime.checkWitness(from)) {
-            return false;
-        }
+        Config config = getConfig();
+        config.exitFee = exitFee;
+        putConfig(config);
+        onSetExitFee.fire(exitFee);
+    }
+
+    @Safe
+    public static int getExitFee() {
+        return getConfig().exitFee;
+    }
+
+    /**
+     * Choose whether incoming NEO is forwarded to the voter
+     * instead of being converted into bNEO
+     *
+     * @param voteNeoDeposits true to forward NEO deposits to the voter
+     */
+    public static void setVoteNeoDeposits(boolean voteNeoDeposits) {
+        validateOwner("setVoteNeoDeposits");
+
+        Config config = getConfig();
+        config.voteNeoDeposits = voteNeoDeposits;
+        putConfig(config);
+        onSetVoteNeoDeposits.fire(voteNeoDeposits);
+    }
+
+    @Safe
+    public static boolean getVoteNeoDeposits() {
+        return getConfig().voteNeoDeposits;
+    }
+
+    @Safe
+    public static String symbol() {
+        return SYMBOL();
+    }
+    
+    @Safe
+    public static Integer decimals() {
+        return DECIMALS();
+    }
+    
+    @Safe
+    public static int balanceOf(Hash160 account) {
+        validateHash160(account, "account");
+        return getBalance(account);
+    }
+
+    /**
+     * Read the cNEO balances of many accounts in a single invocation
+     *
+     * @param accounts the accounts to read, at most MAX_BATCH_SIZE of them
+     * @return         the balance of each account, in the same order
+     */
+    @Safe
+    public static List<Integer> balanceOfBatch(Hash160[] accounts) {
+        assert accounts.length <= MAX_BATCH_SIZE();
+
+        StorageMap balanceMap = BALANCE_MAP();
+        List<Integer> balances = new List<Integer>();
+        for (int i = 0; i < accounts.length; i++) {
+            validateHash160(accounts[i], "account");
+            balances.add(balanceMap.getIntOrZero(accounts[i].toByteArray()));
+        }
+        return balances;
+    }
+
+    /**
+     * List cNEO holders one page at a time
+     * Accounts whose balance has dropped to 0 are skipped
+     *
+     * @param startKey the nextKey of the previous page, or null for the first page
+     * @param limit    the maximum number of holders to return
+     * @return         the holders from startKey on, and the key to continue from
+     */
+    @Safe
+    public static HolderPage getHolders(Hash160 startKey, int limit) {
+        validatePositiveNumber(limit, "limit");
+        assert limit <= MAX_BATCH_SIZE();
+
+        HolderPage page = new HolderPage();
+        page.holders = new List<Holder>();
+        // Storage.find cannot seek, so balances are scanned in buckets keyed by the first account byte
+        // and only the bucket of startKey is walked up to it
+        // startKey may have been emptied and deleted since, hence the ordered comparison
+        byte[] startBytes = startKey == null ? null : startKey.toByteArray();
+        int firstByte = startBytes == null ? 0 : startBytes[0] & 0xff;
+        byte[] startRemainder = startBytes == null ? null : Helper.range(startBytes, 1, startBytes.length - 1);
+        for (int b = firstByte; b < 256; b++) {
+            byte[] bucketPrefix = new byte[]{0x12, 0x00};
+            bucketPrefix[1] = (byte) b;
+            byte[] accountPrefix = new byte[]{0x00};
+            accountPrefix[0] = (byte) b;
+
+            StorageMap bucket = new StorageMap(RTX(), bucketPrefix);
+            Iterator<Iterator.Struct<ByteString, ByteString>> iterator = bucket.find(FindOptions.RemovePrefix);
+            while (iterator.next()) {
+                Iterator.Struct<ByteString, ByteString> entry = iterator.get();
+                byte[] remainder = entry.key.toByteArray();
+                if (b == firstByte && startRemainder != null && compareStorageKeys(remainder, startRemainder) < 0) {
+                    continue;
+                }
+
+                Hash160 account = new Hash160(Helper.concat(accountPrefix, remainder));
+                if (page.holders.size() == limit) {
+                    page.nextKey = account;
+                    return page;
+                }
+                int balance = entry.value.toInt();
+                if (balance > 0) {
+                    page.holders.add(new Holder(account, balance));
+                }
+            }
+        }
+        return page;
+    }
+
+    @Safe
+    public static int totalSupply() {
+        return Storage.getIntOrZero(RTX(), SUPPLY_KEY());
+    }
+
+    /**
+     * The bNEO reserves are tracked internally as bNEO enters and leaves the contract
+     * so that reads do not need a cross-contract balanceOf
+     *
+     * @return the tracked bNEO reserves
+     */
+    @Safe
+    public static int getBneoReserves() {
+        return Storage.getIntOrZero(RTX(), BNEO_RESERVES_KEY());
+    }
+
+    /**
+     * The NEO reserves are tracked internally across all voters as NEO enters and leaves them
+     * so that reads do not need a cross-contract balanceOf per voter
+     *
+     * @return the tracked NEO reserves
+     */
+    @Safe
+    public static int getNeoReserves() {
+        return Storage.getIntOrZero(RTX(), NEO_RESERVES_KEY());
+    }
+
+    @Safe
+    public static int getTotalReserves() {
+        return getReserveSnapshot(getConfig()).totalReserves;
+    }
+
+    /**
+     * The GAS owned by the treasury, excluding GAS that holders are owed as pending swaps
+     *
+     * @return the GAS balance of the contract less the pending swap GAS
+     */
+    @Safe
+    public static int getGasReserves() {
+        GasToken gasContract = new GasToken();
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        return gasContract.balanceOf(cneoHash) - getPendingSwapGas();
+    }
+
+    /**
+     * Compounded GAS that has not been swapped for bNEO yet
+     * It is swapped one tranche at a time by compound and swapPendingGas
+     *
+     * @return the quantity of GAS waiting to be swapped
+     */
+    @Safe
+    public static int getPendingSwapGas() {
+        return Storage.getIntOrZero(RTX(), PENDING_SWAP_GAS_KEY());
+    }
+
+    /**
+     * Read the supply, reserves, reserve ratio and compound timing in a single call
+     * Every field is computed from the same storage and balance reads, so they are consistent with each other
+     *
+     * @return the current state of this contract
+     */
+    @Safe
+    public static State getState() {
+        Config config = getConfig();
+        ReserveSnapshot snapshot = getReserveSnapshot(config);
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+
+        State state = new State();
+        state.totalSupply = snapshot.cneoSupply;
+        state.bneoReserves = snapshot.bneoReserves;
+        state.neoReserves = snapshot.neoReserves;
+        state.totalReserves = snapshot.totalReserves;
+        state.pendingSwapGas = getPendingSwapGas();
+        state.gasReserves = (new GasToken()).balanceOf(cneoHash) - state.pendingSwapGas;
+        state.reserveRatio = getReserveRatioInternal(snapshot);
+        state.lastCompounded = getLastCompounded();
+        state.compoundPeriod = config.compoundPeriod;
+        state.nextCompound = state.lastCompounded + config.compoundPeriod;
+        return state;
+    }
+
+    /**
+     * Read the lifetime totals of this contract in a single call
+     *
+     * @return the cumulative minted, burned, compounded and retained quantities
+     */
+    @Safe
+    public static Stats getStats() {
+        final ByteString storageVal = Storage.get(RTX(), STATS_KEY());
+        return storageVal == null ? new Stats() : (Stats) (new StdLib()).deserialize(storageVal);
+    }
+
+    /**
+     * Compute the (bNEO + NEO):cNEO ratio in this contract
+     *
+     * @return the ratio (bNEO + NEO reserves) / (cNEO supply), multiplied by {@link #FLOAT_MULTIPLIER}
+     */
+    @Safe
+    public static int getReserveRatio() {
+        return getReserveRatioInternal(getReserveSnapshot(getConfig()));
+    }
+
+    /**
+     * Quote the cNEO minted for a bNEO deposit
+     *
+     * @param bneoQuantity the quantity of bNEO to deposit
+     * @return the cNEO that would be minted
+     */
+    @Safe
+    public static Quote previewMint(int bneoQuantity) {
+        validateNonNegativeNumber(bneoQuantity, "bneoQuantity");
+        Config config = getConfig();
+
+        int cneoQuantity = computeCneoOut(config, getReserveSnapshot(config), bneoQuantity);
+        return new Quote(cneoQuantity, 0);
+    }
+
+    /**
+     * Quote the cNEO minted for a NEO deposit
+     *
+     * @param neoQuantity the quantity of NEO to deposit
+     * @return the cNEO that would be minted, and the NEO converted to bNEO unless voteNeoDeposits is set
+     */
+    @Safe
+    public static Quote previewMintFromNeo(int neoQuantity) {
+        validateNonNegativeNumber(neoQuantity, "neoQuantity");
+        Config config = getConfig();
+
+        // Either way the deposit is worth bneoMultiplier bNEO per NEO
+        int cneoQuantity = computeCneoOut(config, getReserveSnapshot(config), neoQuantity * config.bneoMultiplier);
+        return new Quote(cneoQuantity, config.voteNeoDeposits ? 0 : neoQuantity);
+    }
+
+    /**
+     * Quote the bNEO returned for burning cNEO, after the exit fee
+     *
+     * @param cneoQuantity the quantity of cNEO to burn
+     * @return the bNEO that would be returned, and the NEO withdrawn from the voter to cover it
+     */
+    @Safe
+    public static Quote previewRedeem(int cneoQuantity) {
+        validateNonNegativeNumber(cneoQuantity, "cneoQuantity");
+        Config config = getConfig();
+
+        ReserveSnapshot snapshot = getReserveSnapshot(config);
+        int bneoQuantity = computeBneoOut(config, snapshot, cneoQuantity);
+        return new Quote(bneoQuantity, computeNeoToConvert(config, snapshot, bneoQuantity));
+    }
+
+    public static boolean transfer(Hash160 from, Hash160 to, int amount, Object data) {
+        validateHash160(from, "from");
+        validateHash160(to, "to");
+        validateNonNegativeNumber(amount, "amount");
+
+        final int fromBalance = getBalance(from);
+        if (fromBalance < amount) {
+            return false;
+        }
+        if (!Runtime.checkWitness(from)) {
+            return false;
+        }
 
         // Skip balance changes if transferring to yourself or transferring 0
         if (!from.equals(to) && amount != 0) {
@@ -475,6 +1400,64 @@ public class CompoundingNeo {
         return true;
     }
 
+    /**
+     * Transfer cNEO from one account to many recipients in a single invocation
+     * The witness check and the sender debit happen once for the whole batch,
+     * but every recipient still gets its own Transfer event and onNEP17Payment callback
+     *
+     * @param from    the account sending cNEO
+     * @param to      the recipients
+     * @param amounts the quantity of cNEO for each recipient
+     * @param data    the data passed to every onNEP17Payment callback
+     * @return        false if the sender cannot cover the batch or did not sign, true otherwise
+     */
+    public static boolean transferMany(Hash160 from, Hash160[] to, int[] amounts, Object data) {
+        validateHash160(from, "from");
+        assert to.length == amounts.length;
+        assert to.length <= MAX_BATCH_SIZE();
+
+        final int fromBalance = getBalance(from);
+        int debitAmount = 0;
+        for (int i = 0; i < to.length; i++) {
+            validateHash160(to[i], "to");
+            validateNonNegativeNumber(amounts[i], "amount");
+            if (fromBalance < amounts[i]) {
+                return false;
+            }
+            // Transfers to yourself do not change any balance
+            if (!from.equals(to[i])) {
+                debitAmount += amounts[i];
+            }
+        }
+        if (fromBalance < debitAmount) {
+            return false;
+        }
+        if (!Runtime.checkWitness(from)) {
+            return false;
+        }
+
+        if (debitAmount != 0) {
+            if (fromBalance == debitAmount) {
+                BALANCE_MAP().delete(from.toByteArray());
+            } else {
+                deductFromBalance(from, debitAmount);
+            }
+        }
+
+        for (int i = 0; i < to.length; i++) {
+            Hash160 recipient = to[i];
+            int amount = amounts[i];
+            if (!from.equals(recipient) && amount != 0) {
+                addToBalance(recipient, amount);
+            }
+
+            onTransfer.fire(from, recipient, amount);
+            postTransfer(from, recipient, amount, data);
+        }
+
+        return true;
+    }
+
     /**
      * This method is invoked by FlamingoSwapRouter to circumvent the need for a verify() method
      * after we invoke swapTokenInForTokenOut
@@ -490,10 +1473,8 @@ public class CompoundingNeo {
         GasToken gasContract = new GasToken();
         assert token.equals(gasContract.getHash());
 
-        // We only allow transfers to the GAS-bNEO swap pair
-        FlamingoSwapFactoryContract swapFactoryContract = new FlamingoSwapFactoryContract(getSwapFactoryScriptHash());
-        Hash160 swapPairHash = swapFactoryContract.getExchangePair(gasContract.getHash(), getBneoScriptHash());
-        assert to.equals(swapPairHash);
+        // We only allow transfers to the GAS-bNEO swap pair or the first pair of a whitelisted route
+        assert to.equals(getSwapPairScriptHash()) || isApprovedPair(APPROVED_FIRST_PAIR_MAP(), to);
 
         validateNonNegativeNumber(amount, "amount");
 
@@ -505,6 +1486,45 @@ public class CompoundingNeo {
         return gasContract.transfer(cneoHash, to, amount, data);
     }
 
+    /**
+     * Reset the tracked bNEO reserves to the actual bNEO balance of the contract
+     * Only the owner may call this, since a reconcile from inside a bNEO payment callback
+     * would read a balance that an in-flight withdrawal has already reduced
+     */
+    public static void reconcileBneoReserves() {
+        validateOwner("reconcileBneoReserves");
+        int prevBneoReserves = getBneoReserves();
+        // bNEO owed to withdrawal beneficiaries is held by the contract but is not part of the reserves
+        int bneoBalance = getActualBneoBalance(getConfig()) - getClaimableWithdrawals();
+
+        Storage.put(CTX(), BNEO_RESERVES_KEY(), bneoBalance);
+        onReconcileBneoReserves.fire(prevBneoReserves, bneoBalance);
+    }
+
+    /**
+     * Reset the tracked NEO reserves of every voter to its actual NEO balance
+     * Only the owner may call this, since a reconcile from inside a NEO payment callback
+     * would read a voter balance that an in-flight withdrawal has already reduced
+     */
+    public static void reconcileNeoReserves() {
+        validateOwner("reconcileNeoReserves");
+        int prevNeoReserves = getNeoReserves();
+        NeoToken neoContract = new NeoToken();
+        StorageMap voterMap = VOTER_MAP();
+
+        List<Hash160> voters = getVoters();
+        int neoReserves = 0;
+        for (int i = 0; i < voters.size(); i++) {
+            Hash160 voterHash = voters.get(i);
+            int neoBalance = neoContract.balanceOf(voterHash);
+            voterMap.put(voterHash.toByteArray(), neoBalance);
+            neoReserves += neoBalance;
+        }
+
+        Storage.put(CTX(), NEO_RESERVES_KEY(), neoReserves);
+        onReconcileNeoReserves.fire(prevNeoReserves, neoReserves);
+    }
+
     /**
      * Withdraw GAS profits from the contract
      *
@@ -531,49 +1551,126 @@ public class CompoundingNeo {
     public static void compound(Hash160 account) {
         validateAccount(account, "compound");
         validateNonContract(account, "compound");
-        validateCompoundTime();
+        Config config = getConfig();
+        int lastCompounded = validateCompoundTime(config);
 
-        Hash160 bneoHash = getBneoScriptHash();
+        Hash160 bneoHash = config.bneoHash;
         Hash160 cneoHash = Runtime.getExecutingScriptHash();
         FungibleToken bneoContract = new FungibleToken(bneoHash);
         GasToken gasContract = new GasToken();
-        CompoundingNeoVoterContract voterContract = new CompoundingNeoVoterContract(getVoterScriptHash());
 
-        // GAS reserves <= GAS balance always so comparing against this quantity
-        // includes GAS accrued from NEO transfers in between calls of compound()
-        int beforeBalance = getGasReserves();
+        // Comparing against the current balance only counts the GAS claimed below
+        // GAS accrued from NEO transfers in between calls of compound() stays in the treasury
+        int beforeBalance = gasContract.balanceOf(cneoHash);
 
-        // Claim GAS from Voter
-        boolean transferSuccess = voterContract.claimGas();
-        assert transferSuccess;
+        // Claim GAS from every voter
+        // Voters skip the claim when less than their claim threshold has accrued
+        List<Hash160> voters = getVoters();
+        for (int i = 0; i < voters.size(); i++) {
+            CompoundingNeoVoterContract voterContract = new CompoundingNeoVoterContract(voters.get(i));
+            voterContract.claimGas();
+        }
 
         // Send 0 bNEO to the bNEO contract to receive GAS
-        transferSuccess = bneoContract.transfer(cneoHash, bneoHash, 0, null);
+        boolean transferSuccess = bneoContract.transfer(cneoHash, bneoHash, 0, null);
         assert transferSuccess;
 
         int afterBalance = (int) Contract.call(gasContract.getHash(), BALANCE_OF(), CallFlags.ReadOnly, new Object[]{cneoHash});
         int gasQuantity = afterBalance - beforeBalance;
-        int treasuryCut = (gasQuantity * getFeeBasisPoints()) / BASIS_POINTS();
-        int gasToSwap = gasQuantity - treasuryCut;
-
-        // If gasToSwap is too large, it will be clipped and
-        // the extra GAS will go to the treasury
-        // However, the compound period will then be halved to ensure that
-        // the GAS quantity will be smaller on the next compounding period
-        int clippedGasToSwap = Math.min(gasToSwap, getMaxSwapGas());
-        if (clippedGasToSwap < gasToSwap) {
-            treasuryCut = gasQuantity - clippedGasToSwap;
-            halveCompoundPeriod();
-        }
-        int bneoQuantity = clippedGasToSwap > 0 ? swapGasForBneo(clippedGasToSwap) : 0;
-
-        // Reward the invoker for a job well done
-        transferSuccess = transferGas(account, getGasReward());
+        int treasuryCut = (gasQuantity * config.feeBasisPoints) / BASIS_POINTS();
+        addToPendingSwapGas(gasQuantity - treasuryCut);
+
+        // Only one tranche is swapped per call, the rest stays pending
+        // for later calls of compound or swapPendingGas
+        int bneoQuantity = 0;
+        if (!isTrancheSwappedThisBlock()) {
+            bneoQuantity = swapPendingTranche(config);
+        }
+        adjustCompoundPeriod(config, gasQuantity - treasuryCut, lastCompounded);
+        rebalanceReserves(config);
+
+        Stats stats = getStats();
+        stats.gasClaimed += gasQuantity;
+        stats.treasuryCut += treasuryCut;
+        stats.compoundCount += 1;
+        putStats(stats);
+        recordRatioSnapshot(config);
+
+        // Reward the invoker for a job well done, out of the treasury and never out of the pending swap GAS
+        transferSuccess = transferGas(account, Math.max(Math.min(config.gasReward, getGasReserves()), 0));
         assert transferSuccess;
 
         onCompound.fire(account, gasQuantity, bneoQuantity, treasuryCut);
     }
 
+    /**
+     * Preview the outcome of compound without claiming or swapping anything
+     * so that keepers only send compound when it is allowed and worthwhile
+     *
+     * @return the time until the next compound and the GAS and bNEO quantities it would move
+     */
+    @Safe
+    public static CompoundPreview previewCompound() {
+        Config config = getConfig();
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        NeoToken neoContract = new NeoToken();
+        GasToken gasContract = new GasToken();
+        BurgerNeoContract bneoContract = new BurgerNeoContract(config.bneoHash);
+
+        CompoundPreview preview = new CompoundPreview();
+        int nextCompound = getLastCompounded() + config.compoundPeriod;
+        preview.timeUntilCompound = Math.max(nextCompound - Runtime.getTime(), 0);
+
+        // Every voter at or above its claim threshold forwards its unclaimed GAS and any GAS it already holds,
+        // and bNEO sends us our share of its rewards
+        int nextIndex = (new LedgerContract()).currentIndex() + 1;
+        int claimableGas = bneoContract.reward(cneoHash);
+        List<Hash160> voters = getVoters();
+        for (int i = 0; i < voters.size(); i++) {
+            Hash160 voterHash = voters.get(i);
+            int voterGas = neoContract.unclaimedGas(voterHash, nextIndex) + gasContract.balanceOf(voterHash);
+            if (voterGas >= (new CompoundingNeoVoterContract(voterHash)).getClaimThreshold()) {
+                claimableGas += voterGas;
+            }
+        }
+        preview.claimableGas = claimableGas;
+
+        preview.treasuryCut = (preview.claimableGas * config.feeBasisPoints) / BASIS_POINTS();
+        int pendingSwapGas = getPendingSwapGas() + preview.claimableGas - preview.treasuryCut;
+        preview.gasToSwap = Math.min(pendingSwapGas, computeTrancheSize(config));
+        preview.clipped = preview.gasToSwap < pendingSwapGas;
+        preview.expectedBneoOut = preview.gasToSwap > 0 ? findBestSwapQuote(config, preview.gasToSwap).bneoQuantity : 0;
+
+        return preview;
+    }
+
+    /**
+     * Swap one tranche of the pending GAS for bNEO
+     * Anyone may call this, at most once per block, until the pending GAS is drained
+     *
+     * @param account the address of the transaction signer
+     */
+    public static void swapPendingGas(Hash160 account) {
+        validateAccount(account, "swapPendingGas");
+        validateNonContract(account, "swapPendingGas");
+        assert getPendingSwapGas() > 0;
+        assert !isTrancheSwappedThisBlock();
+
+        Config config = getConfig();
+        int pendingBefore = getPendingSwapGas();
+        int bneoQuantity = swapPendingTranche(config);
+        onSwapPendingGas.fire(account, pendingBefore - getPendingSwapGas(), bneoQuantity);
+    }
+
+    /**
+     * Record the GAS-bNEO pool reserves for the time-weighted slippage bound
+     * Anyone may call this, and it records at most once per OBSERVATION_PERIOD,
+     * so keepers observe the pool in transactions of their own rather than in the swapping one
+     */
+    public static void observePool() {
+        recordPoolObservation(getConfig());
+    }
+
     /**
      * Compound a portion of the contract's GAS reserves
      * into more bNEO reserves
@@ -584,62 +1681,238 @@ public class CompoundingNeo {
         validateOwner("compoundReserves");
         validatePositiveNumber(gasQuantity, "gasQuantity");
 
+        Config config = getConfig();
         assert gasQuantity <= getGasReserves();
-        assert gasQuantity <= getMaxSwapGas();
+        assert gasQuantity <= config.maxSwapGas;
 
-        int bneoQuantity = gasQuantity > 0 ? swapGasForBneo(gasQuantity) : 0;
+        int bneoQuantity = gasQuantity > 0 ? swapGasForBneo(config, gasQuantity) : 0;
+        addToBneoBought(bneoQuantity);
         onCompoundReserves.fire(gasQuantity, bneoQuantity);
     }
 
-    public static void convertToBneo(int neoQuantity) {
-        validateOwner("convertToBneo");
-        validatePositiveNumber(neoQuantity, "neoQuantity");
-
-        CompoundingNeoVoterContract voterContract = new CompoundingNeoVoterContract(getVoterScriptHash());
-        assert neoQuantity <= getNeoReserves();
-        assert voterContract.withdrawBneo(neoQuantity);
-
-        onConvertToBneo.fire(neoQuantity);
+    /**
+     * Move the reserves back to the target bNEO share if they drifted further than the tolerance
+     * Anyone may call this since the target and tolerance are set by the owner
+     */
+    public static void rebalance() {
+        rebalanceReserves(getConfig());
     }
 
-    public static void convertToNeo(int neoQuantity) {
-        validateOwner("convertToNeo");
-        validatePositiveNumber(neoQuantity, "neoQuantity");
+    /**
+     * Fill up to maxCount queued withdrawal tickets in FIFO order
+     * Tickets are priced one after another as if burned in sequence,
+     * and any NEO the batch needs is withdrawn from the voters at once
+     * A ticket that would be paid less than its minOut is skipped and stays escrowed in a retry list,
+     * and each batch first retries up to maxCount skipped tickets, oldest first, before the queued ones
+     * Contract beneficiaries are not paid directly, since they could reject the payment and block the queue,
+     * and claim their bNEO with claimWithdrawal instead
+     * Anyone may call this since tickets are only ever paid at the current reserve ratio
+     *
+     * @param maxCount the maximum number of tickets to fill
+     */
+    public static void processWithdrawals(int maxCount) {
+        validatePositiveNumber(maxCount, "maxCount");
+        assert maxCount <= MAX_BATCH_SIZE();
+
+        int skippedHead = getSkippedWithdrawalHead();
+        int skippedEnd = Math.min(getSkippedWithdrawalTail(), skippedHead + maxCount);
+        int head = getWithdrawalQueueHead();
+        int end = Math.min(getWithdrawalQueueTail(), head + maxCount);
+        assert skippedHead < skippedEnd || head < end;
+
+        // Skipped tickets are older than any queued one, so they are priced first
+        StorageMap skippedWithdrawalMap = SKIPPED_WITHDRAWAL_MAP();
+        List<Integer> ids = new List<Integer>();
+        for (int i = skippedHead; i < skippedEnd; i++) {
+            ids.add(skippedWithdrawalMap.getIntOrZero(Helper.toByteArray(i)));
+            skippedWithdrawalMap.delete(Helper.toByteArray(i));
+        }
+        Storage.put(CTX(), SKIPPED_WITHDRAWAL_HEAD_KEY(), skippedEnd);
+        for (int id = head; id < end; id++) {
+            ids.add(id);
+        }
+        Storage.put(CTX(), WITHDRAWAL_QUEUE_HEAD_KEY(), end);
 
+        Config config = getConfig();
         Hash160 cneoHash = Runtime.getExecutingScriptHash();
-        Hash160 voterHash = getVoterScriptHash();
-        GasToken gasContract = new GasToken();
-        FungibleToken bneoContract = new FungibleToken(getBneoScriptHash());
+        StorageMap withdrawalQueueMap = WITHDRAWAL_QUEUE_MAP();
+        StdLib stdLib = new StdLib();
+
+        ReserveSnapshot snapshot = getReserveSnapshot(config);
+        ReserveSnapshot remaining = snapshot;
+        List<WithdrawalTicket> tickets = new List<WithdrawalTicket>();
+        List<Integer> bneoQuantities = new List<Integer>();
+        int cneoTotal = 0;
+        int bneoTotal = 0;
+        int exitFeeTotal = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
+            ByteString storageVal = withdrawalQueueMap.get(Helper.toByteArray(id));
+            // Cancelled tickets leave gaps in the queue and the retry list
+            if (storageVal == null) {
+                continue;
+            }
 
-        int bneoQuantity = neoQuantity * getBneoMultiplier();
-        int gasQuantity = neoQuantity * GAS_FOR_NEO();
-        int gasBalance = gasContract.balanceOf(cneoHash);
-        assert gasQuantity <= gasBalance;
+            WithdrawalTicket ticket = (WithdrawalTicket) stdLib.deserialize(storageVal);
+            int bneoQuantity = computeBneoOut(config, remaining, ticket.cneoQuantity);
+            if (bneoQuantity < ticket.minOut) {
+                addSkippedWithdrawal(id);
+                onSkipWithdrawal.fire(ticket.id, bneoQuantity);
+                continue;
+            }
+            exitFeeTotal += computeExitFeeRetained(remaining, ticket.cneoQuantity, bneoQuantity);
+            tickets.add(ticket);
+            bneoQuantities.add(bneoQuantity);
+            withdrawalQueueMap.delete(Helper.toByteArray(id));
+
+            cneoTotal += ticket.cneoQuantity;
+            bneoTotal += bneoQuantity;
+            remaining = createReserveSnapshot(config, snapshot.bneoReserves - bneoTotal, snapshot.neoReserves,
+                    snapshot.cneoSupply - cneoTotal);
+        }
 
-        boolean transferSuccess = gasContract.transfer(cneoHash, voterHash, gasQuantity, null);
-        assert transferSuccess;
+        burn(cneoHash, cneoTotal);
+        addToExitFeesRetained(exitFeeTotal);
+        int neoQuantity = computeNeoToConvert(config, snapshot, bneoTotal);
+        if (neoQuantity > 0) {
+            withdrawFromVoters(neoQuantity, null);
+        }
+        deductFromBneoReserves(bneoTotal);
+
+        FungibleToken bneoContract = new FungibleToken(config.bneoHash);
+        ContractManagement contractManagement = new ContractManagement();
+        for (int i = 0; i < tickets.size(); i++) {
+            WithdrawalTicket ticket = tickets.get(i);
+            int bneoQuantity = bneoQuantities.get(i);
+            if (contractManagement.getContract(ticket.beneficiary) != null) {
+                addToClaimableWithdrawal(ticket.beneficiary, bneoQuantity);
+            } else {
+                boolean transferSuccess = bneoContract.transfer(cneoHash, ticket.beneficiary, bneoQuantity, null);
+                assert transferSuccess;
+            }
+            onFillWithdrawal.fire(ticket.id, ticket.beneficiary, bneoQuantity);
+        }
+    }
 
-        transferSuccess = bneoContract.transfer(cneoHash, voterHash, bneoQuantity, null);
-        assert transferSuccess;
+    /**
+     * Read up to maxCount unfilled withdrawal tickets, skipped tickets awaiting a retry first and then queued ones
+     *
+     * @param maxCount the maximum number of tickets to read
+     * @return the unfilled tickets in the order they will be filled
+     */
+    @Safe
+    public static List<WithdrawalTicket> getPendingWithdrawals(int maxCount) {
+        validatePositiveNumber(maxCount, "maxCount");
+        assert maxCount <= MAX_BATCH_SIZE();
+
+        StorageMap withdrawalQueueMap = WITHDRAWAL_QUEUE_MAP();
+        StdLib stdLib = new StdLib();
+        List<WithdrawalTicket> tickets = new List<WithdrawalTicket>();
+        StorageMap skippedWithdrawalMap = SKIPPED_WITHDRAWAL_MAP();
+        int skippedHead = getSkippedWithdrawalHead();
+        int skippedEnd = Math.min(getSkippedWithdrawalTail(), skippedHead + maxCount);
+        for (int i = skippedHead; i < skippedEnd && tickets.size() < maxCount; i++) {
+            int id = skippedWithdrawalMap.getIntOrZero(Helper.toByteArray(i));
+            ByteString storageVal = withdrawalQueueMap.get(Helper.toByteArray(id));
+            if (storageVal != null) {
+                tickets.add((WithdrawalTicket) stdLib.deserialize(storageVal));
+            }
+        }
 
-        onConvertToNeo.fire(neoQuantity);
+        int head = getWithdrawalQueueHead();
+        int end = Math.min(getWithdrawalQueueTail(), head + maxCount);
+        for (int id = head; id < end && tickets.size() < maxCount; id++) {
+            ByteString storageVal = withdrawalQueueMap.get(Helper.toByteArray(id));
+            if (storageVal != null) {
+                tickets.add((WithdrawalTicket) stdLib.deserialize(storageVal));
+            }
+        }
+        return tickets;
     }
 
-    @OnNEP17Payment
-    public static void onPayment(Hash160 from, int amount, Object data) {
-        Hash160 tokenHash = Runtime.getCallingScriptHash();
+    /**
+     * Cancel an unfilled or skipped withdrawal ticket and return its escrowed cNEO to the ticket owner
+     *
+     * @param id the id of the ticket to cancel
+     */
+    public static void cancelWithdrawal(int id) {
+        StorageMap withdrawalQueueMap = WITHDRAWAL_QUEUE_MAP();
+        ByteString storageVal = withdrawalQueueMap.get(Helper.toByteArray(id));
+        assert storageVal != null;
+        WithdrawalTicket ticket = (WithdrawalTicket) (new StdLib()).deserialize(storageVal);
+        validateAccount(ticket.owner, "cancelWithdrawal");
+
+        withdrawalQueueMap.delete(Helper.toByteArray(id));
+
         Hash160 cneoHash = Runtime.getExecutingScriptHash();
-        Hash160 bneoHash = getBneoScriptHash();
-        Hash160 voterHash = getVoterScriptHash();
+        deductFromBalance(cneoHash, ticket.cneoQuantity);
+        addToBalance(ticket.owner, ticket.cneoQuantity);
+        onTransfer.fire(cneoHash, ticket.owner, ticket.cneoQuantity);
+        postTransfer(cneoHash, ticket.owner, ticket.cneoQuantity, null);
+
+        onCancelWithdrawal.fire(id, ticket.owner, ticket.cneoQuantity);
+    }
+
+    /**
+     * Send a contract beneficiary the bNEO from its filled withdrawal tickets
+     *
+     * @param account the beneficiary, which must witness the call
+     */
+    public static void claimWithdrawal(Hash160 account) {
+        validateHash160(account, "account");
+        validateAccount(account, "claimWithdrawal");
+
+        int bneoQuantity = getClaimableWithdrawal(account);
+        assert bneoQuantity > 0;
+        CLAIMABLE_WITHDRAWAL_MAP().delete(account.toByteArray());
+        Storage.put(CTX(), CLAIMABLE_WITHDRAWALS_KEY(), getClaimableWithdrawals() - bneoQuantity);
+
+        FungibleToken bneoContract = new FungibleToken(getConfig().bneoHash);
+        boolean transferSuccess = bneoContract.transfer(Runtime.getExecutingScriptHash(), account, bneoQuantity, null);
+        assert transferSuccess;
+        onClaimWithdrawal.fire(account, bneoQuantity);
+    }
+
+    @Safe
+    public static int getClaimableWithdrawal(Hash160 account) {
+        validateHash160(account, "account");
+        return CLAIMABLE_WITHDRAWAL_MAP().getIntOrZero(account.toByteArray());
+    }
+
+    public static void convertToBneo(int neoQuantity) {
+        validateOwner("convertToBneo");
+        validatePositiveNumber(neoQuantity, "neoQuantity");
+
+        assert neoQuantity <= getNeoReserves();
+        withdrawFromVoters(neoQuantity, null);
+
+        onConvertToBneo.fire(neoQuantity);
+    }
+
+    public static void convertToNeo(int neoQuantity) {
+        validateOwner("convertToNeo");
+        validatePositiveNumber(neoQuantity, "neoQuantity");
+
+        convertBneoToNeo(getConfig(), selectDepositVoter(), neoQuantity);
+
+        onConvertToNeo.fire(neoQuantity);
+    }
+
+    @OnNEP17Payment
+    public static void onPayment(Hash160 from, int amount, Object data) {
+        Hash160 tokenHash = Runtime.getCallingScriptHash();
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        Config config = getConfig();
+        Hash160 bneoHash = config.bneoHash;
         NeoToken neoContract = new NeoToken();
         GasToken gasContract = new GasToken();
-        FlamingoSwapFactoryContract swapFactoryContract = new FlamingoSwapFactoryContract(getSwapFactoryScriptHash());
-        Hash160 swapPairHash = swapFactoryContract.getExchangePair(gasContract.getHash(), getBneoScriptHash());
+        Hash160 swapPairHash = config.swapPairHash;
 
         // Case 0: Mint
         if (from == null) {
-            // 0a) bNEO mint - execution continues in handleNeoDeposit or convertToNeo
+            // 0a) bNEO mint - execution continues in handleNeoDeposit
             if (tokenHash.equals(bneoHash)) {
+                addToBneoReserves(amount);
                 return;
             }
             // 0b) GAS mint (claim)
@@ -662,10 +1935,11 @@ public class CompoundingNeo {
             }
         }
 
-        // Case 2: Called by the GAS-bNEO swap pair
-        else if (from.equals(swapPairHash)) {
+        // Case 2: Called by the GAS-bNEO swap pair or the last pair of a whitelisted route
+        else if (from.equals(swapPairHash) || isApprovedPair(APPROVED_LAST_PAIR_MAP(), from)) {
             // 2a) bNEO swap - execution continues in swapGasForBneo
             if (tokenHash.equals(bneoHash)) {
+                addToBneoReserves(amount);
                 return;
             }
             else {
@@ -673,227 +1947,1076 @@ public class CompoundingNeo {
             }
         }
 
-        // Case 3: Called by the Voter contract
-        else if (from.equals(voterHash)) {
-            // 3a) GAS claim - execution continues in compound
-            if (tokenHash.equals(gasContract.getHash())) {
-                return;
-            }
-            // 3b) bNEO redemption - execution continues in convertToBneo
-            else if (tokenHash.equals(bneoHash)) {
-                return;
-            }
-            else {
-                abort("NEP17Transfer from bNEO agent but not NEO", "onNEP17Payment");
-            }
+        // Case 3: Called by a registered Voter contract
+        else if (isVoter(from)) {
+            // 3a) GAS claim - execution continues in compound
+            if (tokenHash.equals(gasContract.getHash())) {
+                return;
+            }
+            // 3b) bNEO redemption - execution continues in convertToBneo or handleBneoWithdraw
+            else if (tokenHash.equals(bneoHash)) {
+                addToBneoReserves(amount);
+                return;
+            }
+            else {
+                abort("NEP17Transfer from bNEO agent but not NEO", "onNEP17Payment");
+            }
+        }
+
+        // Case 4: non-null payload
+        else if (data != null) {
+            NEP17Payload payload = (NEP17Payload) data;
+            // 4a) Handle incoming NEO or bNEO: mint cNEO to the beneficiary
+            if (MINT_ACTION().equals(payload.action)) {
+                handleMintPayload(config, tokenHash, amount, payload);
+            }
+            // 4b) Handle incoming GAS: swap for bNEO and mint cNEO to the beneficiary
+            else if (ZAP_ACTION().equals(payload.action)) {
+                handleZapPayload(config, tokenHash, amount, payload);
+            }
+            // 4c) Handle incoming cNEO: burn and pay out NEO to the beneficiary
+            else if (REDEEM_NEO_ACTION().equals(payload.action)) {
+                handleRedeemNeoPayload(config, tokenHash, amount, payload);
+            }
+            // 4d) Handle incoming cNEO: escrow it in the withdrawal queue
+            else if (QUEUE_ACTION().equals(payload.action)) {
+                handleQueuePayload(tokenHash, from, amount, payload);
+            }
+            else {
+                abort("NEP17Transfer with unsupported payload action", "onNEP17Payment");
+            }
+        }
+
+        // Case 5: null payload, not from earlier cases
+        else {
+            // 5a) Handle incoming NEO: swap for bNEO and mint cNEO
+            if (tokenHash.equals(neoContract.getHash())) {
+                handleNeoDeposit(config, from, amount);
+            }
+            // 5b) Handle incoming bNEO: mint cNEO
+            else if (tokenHash.equals(bneoHash)) {
+                handleBneoDeposit(config, from, amount);
+            }
+            // 5c) Handle incoming cNEO: withdraw bNEO
+            else if (tokenHash.equals(cneoHash)) {
+                handleBneoWithdraw(config, from, amount);
+            }
+            // 5d) GAS top-up for continued operations
+            else if (tokenHash.equals(gasContract.getHash())) {
+                onTopUpGas.fire(from, amount);
+                return;
+            }
+            else {
+                abort("NEP17Transfer with null params must be one of NEO, bNEO, or cNEO", "onNEP17Payment");
+            }
+        }
+    }
+
+    // Helper Methods
+
+    /**
+     * 1. Burn the cNEO offered by the user
+     * 2. Send the corresponding quantity of bNEO back to the requesting user
+     * 
+     * @param config       the contract configuration
+     * @param account      the account that is withdrawing bNEO
+     * @param cneoQuantity the quantity of cNEO to be burned
+     */
+    private static void handleBneoWithdraw(Config config, Hash160 account, int cneoQuantity) {
+        validateHash160(account, "account");
+        validateNonNegativeNumber(cneoQuantity, "cneoQuantity");
+
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        FungibleToken bneoContract = new FungibleToken(config.bneoHash);
+
+        // Every balance read below comes from this single snapshot
+        ReserveSnapshot snapshot = getReserveSnapshot(config);
+        int bneoQuantity = computeBneoOut(config, snapshot, cneoQuantity);
+        int neoQuantity = computeNeoToConvert(config, snapshot, bneoQuantity);
+
+        burn(cneoHash, cneoQuantity);
+        addToExitFeesRetained(computeExitFeeRetained(snapshot, cneoQuantity, bneoQuantity));
+
+        // Convert NEO to bNEO if necessary
+        if (neoQuantity > 0) {
+            withdrawFromVoters(neoQuantity, null);
+        }
+
+        // The ledger is updated before the transfer hands control to a contract account
+        deductFromBneoReserves(bneoQuantity);
+        boolean transferSuccess = bneoContract.transfer(cneoHash, account, bneoQuantity, null);
+        assert transferSuccess;
+    }
+
+    /**
+     * Mint cNEO for incoming NEO or bNEO to the beneficiary named in the payload
+     *
+     * @param config    the contract configuration
+     * @param tokenHash the token that was transferred to the contract
+     * @param amount    the quantity of the token that was transferred
+     * @param payload   the payload carrying the beneficiary and the minimum cNEO out
+     */
+    private static void handleMintPayload(Config config, Hash160 tokenHash, int amount, NEP17Payload payload) {
+        NeoToken neoContract = new NeoToken();
+        validateNonNegativeNumber(payload.minOut, "minOut");
+
+        int cneoQuantity = 0;
+        if (tokenHash.equals(neoContract.getHash())) {
+            cneoQuantity = handleNeoDeposit(config, payload.beneficiary, amount);
+        }
+        else if (tokenHash.equals(config.bneoHash)) {
+            cneoQuantity = handleBneoDeposit(config, payload.beneficiary, amount);
+        }
+        else {
+            abort("MINT payload must accompany NEO or bNEO", "onNEP17Payment");
+        }
+
+        // Protect the depositor against the reserve ratio moving before the transaction lands
+        assert cneoQuantity >= payload.minOut;
+    }
+
+    /**
+     * Escrow the cNEO offered by the user and record a withdrawal ticket for the beneficiary
+     * The cNEO is only burned when processWithdrawals fills the ticket
+     *
+     * @param tokenHash the token that was transferred to the contract
+     * @param from      the account that escrowed the cNEO
+     * @param amount    the quantity of cNEO that was transferred
+     * @param payload   the payload carrying the beneficiary and the minimum bNEO out
+     */
+    private static void handleQueuePayload(Hash160 tokenHash, Hash160 from, int amount, NEP17Payload payload) {
+        if (!tokenHash.equals(Runtime.getExecutingScriptHash())) {
+            abort("QUEUE payload must accompany cNEO", "onNEP17Payment");
+        }
+        validateHash160(from, "from");
+        validateHash160(payload.beneficiary, "beneficiary");
+        validatePositiveNumber(amount, "cneoQuantity");
+        validateNonNegativeNumber(payload.minOut, "minOut");
+
+        int id = getWithdrawalQueueTail();
+        WithdrawalTicket ticket = new WithdrawalTicket();
+        ticket.id = id;
+        ticket.beneficiary = payload.beneficiary;
+        ticket.cneoQuantity = amount;
+        ticket.requestedAt = Runtime.getTime();
+        ticket.owner = from;
+        ticket.minOut = payload.minOut;
+        WITHDRAWAL_QUEUE_MAP().put(Helper.toByteArray(id), (new StdLib()).serialize(ticket));
+        Storage.put(CTX(), WITHDRAWAL_QUEUE_TAIL_KEY(), id + 1);
+
+        onQueueWithdrawal.fire(id, payload.beneficiary, amount);
+    }
+
+    /**
+     * 1. Burn the cNEO offered by the user
+     * 2. Send the corresponding quantity of NEO to the beneficiary named in the payload,
+     *    straight from the voters and converting bNEO reserves only for what they do not hold
+     * Any bNEO below 1 NEO is paid out as bNEO, withdrawing one more NEO as bNEO when the bNEO reserves do not cover it
+     *
+     * @param config    the contract configuration
+     * @param tokenHash the token that was transferred to the contract
+     * @param amount    the quantity of cNEO that was transferred
+     * @param payload   the payload carrying the beneficiary and the minimum NEO out
+     */
+    private static void handleRedeemNeoPayload(Config config, Hash160 tokenHash, int amount, NEP17Payload payload) {
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        if (!tokenHash.equals(cneoHash)) {
+            abort("REDEEM_NEO payload must accompany cNEO", "onNEP17Payment");
+        }
+        Hash160 beneficiary = payload.beneficiary;
+        validateHash160(beneficiary, "beneficiary");
+        validateNonNegativeNumber(amount, "cneoQuantity");
+        validateNonNegativeNumber(payload.minOut, "minOut");
+
+        // Every balance read below comes from this single snapshot
+        ReserveSnapshot snapshot = getReserveSnapshot(config);
+        int bneoQuantity = computeBneoOut(config, snapshot, amount);
+        int neoQuantity = bneoQuantity / config.bneoMultiplier;
+        int bneoRemainder = bneoQuantity - neoQuantity * config.bneoMultiplier;
+        assert neoQuantity >= payload.minOut;
+
+        burn(cneoHash, amount);
+        addToExitFeesRetained(computeExitFeeRetained(snapshot, amount, bneoQuantity));
+
+        int neoToConvert = neoQuantity - Math.min(neoQuantity, snapshot.neoReserves);
+        if (neoToConvert > 0) {
+            convertBneoToNeo(config, selectDepositVoter(), neoToConvert);
+        }
+        // Round up like computeNeoToConvert when the bNEO left after converting cannot pay the remainder
+        if (bneoRemainder > snapshot.bneoReserves - neoToConvert * config.bneoMultiplier) {
+            withdrawFromVoters(1, null);
+        }
+        if (neoQuantity > 0) {
+            withdrawFromVoters(neoQuantity, beneficiary);
+        }
+
+        if (bneoRemainder > 0) {
+            // The ledger is updated before the transfer hands control to a contract beneficiary
+            deductFromBneoReserves(bneoRemainder);
+            FungibleToken bneoContract = new FungibleToken(config.bneoHash);
+            boolean transferSuccess = bneoContract.transfer(cneoHash, beneficiary, bneoRemainder, null);
+            assert transferSuccess;
+        }
+    }
+
+    /**
+     * Withdraw NEO from the voters when the bNEO share is below the band around the target
+     * and convert bNEO into NEO when it is above it
+     * Conversions to NEO are limited by the GAS reserves that pay the bNEO redemption fee
+     *
+     * @param config the contract configuration
+     */
+    private static void rebalanceReserves(Config config) {
+        int targetBufferBasisPoints = config.targetBufferBasisPoints;
+        if (targetBufferBasisPoints == 0) {
+            return;
+        }
+        ReserveSnapshot snapshot = getReserveSnapshot(config);
+        if (snapshot.totalReserves == 0) {
+            return;
+        }
+
+        int basisPoints = BASIS_POINTS();
+        int bufferBasisPoints = (snapshot.bneoReserves * basisPoints) / snapshot.totalReserves;
+        int targetBneoReserves = (snapshot.totalReserves * targetBufferBasisPoints) / basisPoints;
+        if (bufferBasisPoints + config.bufferToleranceBasisPoints < targetBufferBasisPoints) {
+            int neoQuantity = (targetBneoReserves - snapshot.bneoReserves) / config.bneoMultiplier;
+            neoQuantity = Math.min(neoQuantity, snapshot.neoReserves);
+            if (neoQuantity > 0) {
+                withdrawFromVoters(neoQuantity, null);
+                onRebalance.fire(neoQuantity, 0);
+            }
+        }
+        else if (bufferBasisPoints > targetBufferBasisPoints + config.bufferToleranceBasisPoints) {
+            int neoQuantity = (snapshot.bneoReserves - targetBneoReserves) / config.bneoMultiplier;
+            neoQuantity = Math.min(neoQuantity, getGasReserves() / GAS_FOR_NEO());
+            if (neoQuantity > 0) {
+                convertBneoToNeo(config, selectDepositVoter(), neoQuantity);
+                onRebalance.fire(0, neoQuantity);
+            }
+        }
+    }
+
+    /**
+     * Send bNEO reserves and the GAS fee to a voter, which converts them into NEO
+     *
+     * @param config      the contract configuration
+     * @param voterHash   the voter that receives the NEO
+     * @param neoQuantity the quantity of NEO to convert
+     */
+    private static void convertBneoToNeo(Config config, Hash160 voterHash, int neoQuantity) {
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        GasToken gasContract = new GasToken();
+        FungibleToken bneoContract = new FungibleToken(config.bneoHash);
+
+        int bneoQuantity = neoQuantity * config.bneoMultiplier;
+        int gasQuantity = neoQuantity * GAS_FOR_NEO();
+        assert gasQuantity <= getGasReserves();
+
+        deductFromBneoReserves(bneoQuantity);
+        // The voter asserts that it received exactly neoQuantity NEO
+        addToVoterNeoReserves(voterHash, neoQuantity);
+
+        boolean transferSuccess = gasContract.transfer(cneoHash, voterHash, gasQuantity, null);
+        assert transferSuccess;
+
+        transferSuccess = bneoContract.transfer(cneoHash, voterHash, bneoQuantity, null);
+        assert transferSuccess;
+    }
+
+    /**
+     * 1. Swap the incoming GAS for bNEO on Flamingo
+     * 2. Mint the corresponding quantity of cNEO to the beneficiary named in the payload
+     *
+     * @param config    the contract configuration
+     * @param tokenHash the token that was transferred to the contract
+     * @param amount    the quantity of GAS that was transferred
+     * @param payload   the payload carrying the beneficiary and the minimum cNEO out
+     */
+    private static void handleZapPayload(Config config, Hash160 tokenHash, int amount, NEP17Payload payload) {
+        GasToken gasContract = new GasToken();
+        if (!tokenHash.equals(gasContract.getHash())) {
+            abort("ZAP payload must accompany GAS", "onNEP17Payment");
+        }
+        validateHash160(payload.beneficiary, "beneficiary");
+        validatePositiveNumber(amount, "gasQuantity");
+        validateNonNegativeNumber(payload.minOut, "minOut");
+
+        // The swapped bNEO is added to the reserves before minting,
+        // so mintCneoFromBneo takes it back out to mint at the pre-swap ratio
+        int bneoQuantity = swapGasForBneo(config, amount);
+        int cneoQuantity = mintCneoFromBneo(config, bneoQuantity, payload.beneficiary);
+
+        // Protect the depositor against both the swap price and the reserve ratio
+        assert cneoQuantity >= payload.minOut;
+    }
+
+    /**
+     * 1. Convert the incoming NEO quantity into bNEO, or forward it to the voter if voteNeoDeposits is set
+     * 2. Mint and transfer the corresponding quantity of cNEO to the account
+     * 
+     * @param config      the contract configuration
+     * @param account     the account that receives the minted cNEO
+     * @param neoQuantity the quantity of NEO to be converted into bNEO and locked
+     * @return            the quantity of cNEO minted
+     */
+    private static int handleNeoDeposit(Config config, Hash160 account, int neoQuantity) {
+        validateHash160(account, "account");
+        validateNonNegativeNumber(neoQuantity, "neoQuantity");
+
+        Hash160 bneoHash = config.bneoHash;
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        NeoToken neoContract = new NeoToken();
+
+        if (config.voteNeoDeposits) {
+            // The NEO has not reached the voter yet, so this is still the pre-deposit ratio
+            ReserveSnapshot snapshot = getReserveSnapshot(config);
+
+            Hash160 voterHash = selectDepositVoter();
+            boolean transferSuccess = neoContract.transfer(cneoHash, voterHash, neoQuantity, null);
+            assert transferSuccess;
+            addToVoterNeoReserves(voterHash, neoQuantity);
+
+            return mintCneoAtSnapshot(config, snapshot, neoQuantity * config.bneoMultiplier, account);
+        }
+
+        // Swap incoming NEO for bNEO
+        // The minted bNEO is added to the reserves in onPayment
+        int beforeBalance = getBneoReserves();
+
+        boolean transferSuccess = neoContract.transfer(cneoHash, bneoHash, neoQuantity, null);
+        assert transferSuccess;
+        
+        int afterBalance = getBneoReserves();
+        int bneoQuantity = afterBalance - beforeBalance;
+
+        return mintCneoFromBneo(config, bneoQuantity, account);
+    }
+
+    /**
+     * Mint and transfer the corresponding quantity of cNEO to the account
+     * 
+     * @param config       the contract configuration
+     * @param account      the account that receives the minted cNEO
+     * @param bneoQuantity the quantity of bNEO to be locked
+     * @return             the quantity of cNEO minted
+     */
+    private static int handleBneoDeposit(Config config, Hash160 account, int bneoQuantity) {
+        validateHash160(account, "account");
+        validateNonNegativeNumber(bneoQuantity, "bneoQuantity");
+
+        addToBneoReserves(bneoQuantity);
+        return mintCneoFromBneo(config, bneoQuantity, account);
+    }
+
+    private static void setLastCompounded(int lastCompounded) {
+        validatePositiveNumber(lastCompounded, "lastCompounded");
+
+        Storage.put(CTX(), LAST_COMPOUNDED_KEY(), lastCompounded);
+    }
+
+    private static boolean transferGas(Hash160 to, int quantity) {
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        GasToken gasContract = new GasToken();
+        return gasContract.transfer(cneoHash, to, quantity, null);
+    }
+
+    /**
+     * Mint cNEO corresponding to incoming bNEO
+     *
+     * @param config       the contract configuration
+     * @param bneoQuantity the quantity of bNEO to be locked
+     * @param account      the account to which the cNEO is to be minted
+     * @return             the quantity of cNEO minted
+     */
+    private static int mintCneoFromBneo(Config config, int bneoQuantity, Hash160 account) {
+        // We have to use the *old* reserve ratio,
+        // before the bneoQuantity has been received by the contract
+        int prevBneoReserves = getBneoReserves() - bneoQuantity;
+        assert prevBneoReserves >= 0;
+
+        ReserveSnapshot snapshot = createReserveSnapshot(config, prevBneoReserves, getNeoReserves(), totalSupply());
+        return mintCneoAtSnapshot(config, snapshot, bneoQuantity, account);
+    }
+
+    /**
+     * Mint cNEO for a deposit worth bneoQuantity at the reserve ratio of the snapshot
+     *
+     * @param config       the contract configuration
+     * @param snapshot     the reserves and supply before the deposit
+     * @param bneoQuantity the value of the deposit in bNEO
+     * @param account      the account to which the cNEO is to be minted
+     * @return             the quantity of cNEO minted
+     */
+    private static int mintCneoAtSnapshot(Config config, ReserveSnapshot snapshot, int bneoQuantity, Hash160 account) {
+        int cneoQuantity = computeCneoOut(config, snapshot, bneoQuantity);
+
+        mint(account, cneoQuantity);
+        return cneoQuantity;
+    }
+
+    /**
+     * Compute the cNEO minted for a deposit worth bneoQuantity at the reserve ratio of the snapshot
+     * Shared by minting and previewMint so that quotes never drift from the real operation
+     *
+     * @param config       the contract configuration
+     * @param snapshot     the reserves and supply before the deposit
+     * @param bneoQuantity the value of the deposit in bNEO
+     * @return             the quantity of cNEO to mint
+     */
+    private static int computeCneoOut(Config config, ReserveSnapshot snapshot, int bneoQuantity) {
+        int reserveRatio = getReserveRatioInternal(snapshot);
+
+        // As total reserves increase, the quantity of cNEO minted per bNEO decreases
+        int cneoQuantity = (FLOAT_MULTIPLIER() * bneoQuantity) / reserveRatio;
+
+        int newSupply = snapshot.cneoSupply + cneoQuantity;
+        int maxSupply = config.maxSupply;
+        assert newSupply <= maxSupply;
+
+        return cneoQuantity;
+    }
+
+    /**
+     * Compute the bNEO returned for burning cNEO at the reserve ratio of the snapshot
+     * Shared by handleBneoWithdraw and previewRedeem so that quotes never drift from the real operation
+     *
+     * @param config       the contract configuration
+     * @param snapshot     the reserves and supply before the burn
+     * @param cneoQuantity the quantity of cNEO to be burned
+     * @return             the quantity of bNEO to return
+     */
+    private static int computeBneoOut(Config config, ReserveSnapshot snapshot, int cneoQuantity) {
+        // Special case to retrieve all bNEO if all remaining cNEO are burned
+        if (cneoQuantity == snapshot.cneoSupply) {
+            return snapshot.totalReserves;
+        }
+
+        // Otherwise, apply an exit fee to safeguard against
+        // attackers abusing compound times
+        int basisPoints = BASIS_POINTS();
+        int bneoToCneoRatio = getReserveRatioInternal(snapshot);
+        int computedBneoQuantity = (bneoToCneoRatio * cneoQuantity ) / FLOAT_MULTIPLIER();
+        int clippedBneoQuantity = (computedBneoQuantity * (basisPoints - config.exitFee)) / basisPoints;
+        // bneoQuantity can be greater than bneoReserves due to float precision
+        return Math.min(clippedBneoQuantity, snapshot.totalReserves);
+    }
+
+    /**
+     * Compute the bNEO kept in the reserves by the exit fee of a burn
+     *
+     * @param snapshot     the reserves and supply before the burn
+     * @param cneoQuantity the quantity of cNEO burned
+     * @param bneoQuantity the quantity of bNEO returned, as computed by computeBneoOut
+     * @return             the bNEO that would have been returned without the exit fee, less bneoQuantity
+     */
+    private static int computeExitFeeRetained(ReserveSnapshot snapshot, int cneoQuantity, int bneoQuantity) {
+        int grossBneoQuantity = (getReserveRatioInternal(snapshot) * cneoQuantity) / FLOAT_MULTIPLIER();
+        // The last burn returns every reserve and so retains nothing
+        return Math.max(Math.min(grossBneoQuantity, snapshot.totalReserves) - bneoQuantity, 0);
+    }
+
+    /**
+     * Compute the NEO that must be withdrawn from the voter as bNEO to pay out bneoQuantity
+     *
+     * @param config       the contract configuration
+     * @param snapshot     the reserves before the payout
+     * @param bneoQuantity the quantity of bNEO to pay out
+     * @return             the quantity of NEO to convert, 0 if the bNEO reserves suffice
+     */
+    private static int computeNeoToConvert(Config config, ReserveSnapshot snapshot, int bneoQuantity) {
+        int bneoReserves = snapshot.bneoReserves;
+        if (bneoQuantity <= bneoReserves) {
+            return 0;
+        }
+
+        int missingBneoQuantity = bneoQuantity - bneoReserves;
+        int bneoMultiplier = config.bneoMultiplier;
+        int floorNeoQuantity = missingBneoQuantity / bneoMultiplier;
+        int neoQuantity = missingBneoQuantity % bneoMultiplier == 0 ? floorNeoQuantity : floorNeoQuantity + 1;
+        assert neoQuantity <= snapshot.neoReserves;
+
+        return neoQuantity;
+    }
+
+    /**
+     * Swap the incoming quantity of GAS to bNEO on Flamingo
+     *
+     * @param config      the contract configuration
+     * @param gasQuantity the quantity of incoming GAS
+     * @return the quantity of bNEO added to the reserves
+     */
+    private static int swapGasForBneo(Config config, int gasQuantity) {
+        SwapQuote quote = findBestSwapQuote(config, gasQuantity);
+        int minBneoIn = computeMinBneoIn(config, computeExpectedBneoOut(config, quote, gasQuantity));
+        return executeSwap(config, quote, gasQuantity, minBneoIn);
+    }
+
+    /**
+     * Swap GAS for bNEO along a quoted path
+     *
+     * @param config      the contract configuration
+     * @param quote       the path to swap along
+     * @param gasQuantity the quantity of GAS to swap
+     * @param minBneoIn   the least bNEO the swap may return
+     * @return the quantity of bNEO added to the reserves
+     */
+    private static int executeSwap(Config config, SwapQuote quote, int gasQuantity, int minBneoIn) {
+        validateNonNegativeNumber(gasQuantity, "gasQuantity");
+
+        // Protect against attackers swapping too much GAS at once
+        assert gasQuantity <= config.maxSwapGas;
+
+        FlamingoSwapRouterContract swapRouterContract = new FlamingoSwapRouterContract(config.swapRouterHash);
+
+        // The swapped bNEO is added to the reserves in onPayment
+        int beforeBalance = getBneoReserves();
+        int deadline = Runtime.getTime();
+        addToApprovedSwapQuantity(gasQuantity);
+        boolean swapSuccess = swapRouterContract.swapTokenInForTokenOut(gasQuantity, minBneoIn, quote.path, deadline);
+        assert swapSuccess;
+
+        int afterBalance = getBneoReserves();
+        int bneoQuantity = afterBalance - beforeBalance;
+
+        return bneoQuantity;
+    }
+
+    /**
+     * Swap the next tranche of pending GAS and record the block it was swapped in
+     * The tranche stays pending when the pool quotes less than the slippage bound,
+     * so a pool that moved away from the average holds up the swap but not the compound
+     *
+     * @param config the contract configuration
+     * @return the quantity of bNEO added to the reserves
+     */
+    private static int swapPendingTranche(Config config) {
+        int gasQuantity = Math.min(getPendingSwapGas(), computeTrancheSize(config));
+        if (gasQuantity <= 0) {
+            return 0;
+        }
+
+        Storage.put(CTX(), LAST_TRANCHE_INDEX_KEY(), (new LedgerContract()).currentIndex());
+        SwapQuote quote = findBestSwapQuote(config, gasQuantity);
+        int minBneoIn = computeMinBneoIn(config, computeExpectedBneoOut(config, quote, gasQuantity));
+        if (quote.bneoQuantity < minBneoIn) {
+            onSkipSwap.fire(gasQuantity, minBneoIn);
+            return 0;
+        }
+
+        addToPendingSwapGas(-gasQuantity);
+        int bneoQuantity = executeSwap(config, quote, gasQuantity, minBneoIn);
+        addToBneoBought(bneoQuantity);
+        return bneoQuantity;
+    }
+
+    /**
+     * Size a tranche from the current depth of the GAS-bNEO pool
+     *
+     * @param config the contract configuration
+     * @return the largest quantity of GAS to swap at once
+     */
+    private static int computeTrancheSize(Config config) {
+        if (config.maxTrancheBasisPoints == 0) {
+            return config.maxSwapGas;
+        }
+
+        GasToken gasContract = new GasToken();
+        FlamingoSwapRouterContract swapRouterContract = new FlamingoSwapRouterContract(config.swapRouterHash);
+        int poolGasReserve = swapRouterContract.getReserves(gasContract.getHash(), config.bneoHash).get(0);
+        int trancheSize = (poolGasReserve * config.maxTrancheBasisPoints) / BASIS_POINTS();
+        return Math.min(trancheSize, config.maxSwapGas);
+    }
+
+    private static boolean isTrancheSwappedThisBlock() {
+        Integer lastTrancheIndex = Storage.getInt(RTX(), LAST_TRANCHE_INDEX_KEY());
+        return lastTrancheIndex != null && lastTrancheIndex == (new LedgerContract()).currentIndex();
+    }
+
+    private static void addToPendingSwapGas(int value) {
+        Storage.put(CTX(), PENDING_SWAP_GAS_KEY(), getPendingSwapGas() + value);
+    }
+
+    /**
+     * The bNEO a swap should return if the pool were at its time-weighted average reserves
+     * Falls back to the quote at spot reserves until the observations span twapWindow,
+     * and when no keeper has observed the pool within the last twapWindow
+     * The observations only cover the direct GAS-bNEO pool, so a whitelisted route must quote
+     * at least what the direct pool would at its average reserves
+     *
+     * @param config      the contract configuration
+     * @param quote       the best quote at spot reserves
+     * @param gasQuantity the quantity of GAS to swap
+     * @return the bNEO to derive the slippage bound from
+     */
+    private static int computeExpectedBneoOut(Config config, SwapQuote quote, int gasQuantity) {
+        int count = getPoolObservationCount();
+        if (config.twapWindow == 0 || count == 0) {
+            return quote.bneoQuantity;
+        }
+
+        int now = Runtime.getTime();
+        PoolObservation oldest = getPoolObservation(Math.max(count - MAX_POOL_OBSERVATIONS(), 0));
+        PoolObservation newest = getPoolObservation(count - 1);
+        if (now - oldest.timestamp < config.twapWindow || now - newest.timestamp > config.twapWindow) {
+            return quote.bneoQuantity;
         }
 
-        // Case 4: non-null payload
-        else if (data != null) {
-            abort("NEP17Transfer with non-null payload not supported", "onNEP17Payment");
+        int[] averageReserves = computeAverageReserves(count, now);
+        FlamingoSwapRouterContract swapRouterContract = new FlamingoSwapRouterContract(config.swapRouterHash);
+        int averageBneoOut = swapRouterContract.getAmountOut(gasQuantity, averageReserves[0], averageReserves[1]);
+        if (quote.path.length > 2) {
+            return Math.max(quote.bneoQuantity, averageBneoOut);
         }
+        return averageBneoOut;
+    }
 
-        // Case 5: null payload, not from earlier cases
-        else {
-            // 5a) Handle incoming NEO: swap for bNEO and mint cNEO
-            if (tokenHash.equals(neoContract.getHash())) {
-                handleNeoDeposit(from, amount);
-            }
-            // 5b) Handle incoming bNEO: mint cNEO
-            else if (tokenHash.equals(bneoHash)) {
-                handleBneoDeposit(from, amount);
-            }
-            // 5c) Handle incoming cNEO: withdraw bNEO
-            else if (tokenHash.equals(cneoHash)) {
-                handleBneoWithdraw(from, amount);
-            }
-            // 5d) GAS top-up for continued operations
-            else if (tokenHash.equals(gasContract.getHash())) {
-                onTopUpGas.fire(from, amount);
-                return;
-            }
-            else {
-                abort("NEP17Transfer with null params must be one of NEO, bNEO, or cNEO", "onNEP17Payment");
-            }
+    /**
+     * Average the stored GAS-bNEO pool reserves up to now
+     * The newest reserves are extrapolated to now, so reserves seen in this block carry no weight
+     *
+     * @param count the number of observations recorded so far, at least 1
+     * @param now   the time to average up to
+     * @return      the average GAS reserve followed by the average bNEO reserve
+     */
+    private static int[] computeAverageReserves(int count, int now) {
+        PoolObservation oldest = getPoolObservation(Math.max(count - MAX_POOL_OBSERVATIONS(), 0));
+        PoolObservation newest = getPoolObservation(count - 1);
+        int elapsed = now - oldest.timestamp;
+        if (elapsed == 0) {
+            return new int[]{ newest.gasReserve, newest.bneoReserve };
         }
+
+        int sinceNewest = now - newest.timestamp;
+        int gasCumulative = newest.gasCumulative + newest.gasReserve * sinceNewest;
+        int bneoCumulative = newest.bneoCumulative + newest.bneoReserve * sinceNewest;
+        return new int[]{ (gasCumulative - oldest.gasCumulative) / elapsed, (bneoCumulative - oldest.bneoCumulative) / elapsed };
     }
 
-    // Helper Methods
+    /**
+     * Clip the bNEO reserve seen now so that the pool price stays within
+     * MAX_OBSERVATION_DEVIATION_BASIS_POINTS of the price at the running average reserves
+     *
+     * @param gasReserve         the GAS reserve seen now
+     * @param bneoReserve        the bNEO reserve seen now
+     * @param averageGasReserve  the running average GAS reserve
+     * @param averageBneoReserve the running average bNEO reserve
+     * @return                   the bNEO reserve to record
+     */
+    private static int clampToAveragePrice(int gasReserve, int bneoReserve, int averageGasReserve, int averageBneoReserve) {
+        int fairBneoReserve = (gasReserve * averageBneoReserve) / averageGasReserve;
+        int maxDeviation = (fairBneoReserve * MAX_OBSERVATION_DEVIATION_BASIS_POINTS()) / BASIS_POINTS();
+        return Math.min(Math.max(bneoReserve, fairBneoReserve - maxDeviation), fairBneoReserve + maxDeviation);
+    }
 
     /**
-     * 1. Burn the cNEO offered by the user
-     * 2. Send the corresponding quantity of bNEO back to the requesting user
-     * 
-     * @param account      the account that is withdrawing bNEO
-     * @param cneoQuantity the quantity of cNEO to be burned
+     * Store the current GAS-bNEO pool reserves if OBSERVATION_PERIOD has passed since the last observation
+     * The recorded price is clipped to near the running average,
+     * so a pool skewed within one transaction can only move the average a little
+     *
+     * @param config the contract configuration
      */
-    private static void handleBneoWithdraw(Hash160 account, int cneoQuantity) {
-        validateHash160(account, "account");
-        validateNonNegativeNumber(cneoQuantity, "cneoQuantity");
+    private static void recordPoolObservation(Config config) {
+        if (config.swapRouterHash.isZero() || config.bneoHash.isZero()) {
+            return;
+        }
 
-        Hash160 cneoHash = Runtime.getExecutingScriptHash();
-        FungibleToken bneoContract = new FungibleToken(getBneoScriptHash());
+        int now = Runtime.getTime();
+        int count = getPoolObservationCount();
+        PoolObservation newest = count > 0 ? getPoolObservation(count - 1) : null;
+        if (newest != null && now < newest.timestamp + OBSERVATION_PERIOD()) {
+            return;
+        }
 
-        // Special case to retrieve all bNEO if all remaining cNEO are burned
-        int bneoQuantity;
-        if (cneoQuantity == totalSupply()) {
-            bneoQuantity = getTotalReserves();
-        // Otherwise, apply an exit fee to safeguard against
-        // attackers abusing compound times
-        } else {
-            int basisPoints = BASIS_POINTS();
-            int bneoToCneoRatio = getReserveRatio();
-            int computedBneoQuantity = (bneoToCneoRatio * cneoQuantity ) / FLOAT_MULTIPLIER();
-            int clippedBneoQuantity = (computedBneoQuantity * (basisPoints - getExitFee())) / basisPoints;
-            // bneoQuantity can be greater than bneoReserves due to float precision
-            bneoQuantity = Math.min(clippedBneoQuantity, getTotalReserves());
+        GasToken gasContract = new GasToken();
+        FlamingoSwapRouterContract swapRouterContract = new FlamingoSwapRouterContract(config.swapRouterHash);
+        List<Integer> reserves = swapRouterContract.getReserves(gasContract.getHash(), config.bneoHash);
+        if (reserves.get(0) == 0 || reserves.get(1) == 0) {
+            return;
         }
 
-        burn(cneoHash, cneoQuantity);
+        PoolObservation observation = new PoolObservation();
+        observation.timestamp = now;
+        observation.gasReserve = reserves.get(0);
+        observation.bneoReserve = reserves.get(1);
+        if (newest == null) {
+            observation.gasCumulative = 0;
+            observation.bneoCumulative = 0;
+        } else {
+            int[] averageReserves = computeAverageReserves(count, now);
+            observation.bneoReserve = clampToAveragePrice(observation.gasReserve, observation.bneoReserve,
+                    averageReserves[0], averageReserves[1]);
 
-        // Convert NEO to bNEO if necessary
-        int bneoReserves = getBneoReserves();
-        if (bneoQuantity > bneoReserves) {
-            int missingBneoQuantity = bneoQuantity - bneoReserves;
-            int bneoMultiplier = getBneoMultiplier();
-            int floorNeoQuantity = missingBneoQuantity / bneoMultiplier;
-            int neoQuantity = missingBneoQuantity % bneoMultiplier == 0 ? floorNeoQuantity : floorNeoQuantity + 1;
-
-            CompoundingNeoVoterContract voterContract = new CompoundingNeoVoterContract(getVoterScriptHash());
-            assert neoQuantity <= getNeoReserves();
-            assert voterContract.withdrawBneo(neoQuantity);
+            int elapsed = now - newest.timestamp;
+            observation.gasCumulative = newest.gasCumulative + newest.gasReserve * elapsed;
+            observation.bneoCumulative = newest.bneoCumulative + newest.bneoReserve * elapsed;
         }
 
-        boolean transferSuccess = bneoContract.transfer(Runtime.getExecutingScriptHash(), account, bneoQuantity, null);
-        assert transferSuccess;
+        POOL_OBSERVATION_MAP().put(Helper.toByteArray(count % MAX_POOL_OBSERVATIONS()), (new StdLib()).serialize(observation));
+        Storage.put(CTX(), POOL_OBSERVATION_COUNT_KEY(), count + 1);
+        onObservePool.fire(observation.gasReserve, observation.bneoReserve);
     }
 
-    /**
-     * 1. Convert the incoming NEO quantity into bNEO
-     * 2. Mint and transfer the corresponding quantity of cNEO to the account
-     * 
-     * @param account     the account that is depositing NEO
-     * @param neoQuantity the quantity of NEO to be converted into bNEO and locked
-     */
-    private static void handleNeoDeposit(Hash160 account, int neoQuantity) {
-        validateHash160(account, "account");
-        validateNonNegativeNumber(neoQuantity, "neoQuantity");
+    private static int getClaimableWithdrawals() {
+        return Storage.getIntOrZero(RTX(), CLAIMABLE_WITHDRAWALS_KEY());
+    }
 
-        Hash160 bneoHash = getBneoScriptHash();
-        Hash160 cneoHash = Runtime.getExecutingScriptHash();
-        NeoToken neoContract = new NeoToken();
-        String balanceOf = BALANCE_OF();
+    private static void addToClaimableWithdrawal(Hash160 account, int bneoQuantity) {
+        StorageMap claimableWithdrawalMap = CLAIMABLE_WITHDRAWAL_MAP();
+        claimableWithdrawalMap.put(account.toByteArray(), claimableWithdrawalMap.getIntOrZero(account.toByteArray()) + bneoQuantity);
+        Storage.put(CTX(), CLAIMABLE_WITHDRAWALS_KEY(), getClaimableWithdrawals() + bneoQuantity);
+    }
 
-        // Swap incoming NEO for bNEO
-        int beforeBalance = (int) Contract.call(bneoHash, balanceOf, CallFlags.ReadOnly, new Object[]{cneoHash});
+    private static int getWithdrawalQueueHead() {
+        return Storage.getIntOrZero(RTX(), WITHDRAWAL_QUEUE_HEAD_KEY());
+    }
 
-        boolean transferSuccess = neoContract.transfer(cneoHash, bneoHash, neoQuantity, null);
-        assert transferSuccess;
-        
-        int afterBalance = (int) Contract.call(bneoHash, balanceOf, CallFlags.ReadOnly, new Object[]{cneoHash});
-        int bneoQuantity = afterBalance - beforeBalance;
+    private static int getWithdrawalQueueTail() {
+        return Storage.getIntOrZero(RTX(), WITHDRAWAL_QUEUE_TAIL_KEY());
+    }
+
+    private static int getSkippedWithdrawalHead() {
+        return Storage.getIntOrZero(RTX(), SKIPPED_WITHDRAWAL_HEAD_KEY());
+    }
+
+    private static int getSkippedWithdrawalTail() {
+        return Storage.getIntOrZero(RTX(), SKIPPED_WITHDRAWAL_TAIL_KEY());
+    }
+
+    private static void addSkippedWithdrawal(int id) {
+        int skippedTail = getSkippedWithdrawalTail();
+        SKIPPED_WITHDRAWAL_MAP().put(Helper.toByteArray(skippedTail), id);
+        Storage.put(CTX(), SKIPPED_WITHDRAWAL_TAIL_KEY(), skippedTail + 1);
+    }
 
-        mintCneoFromBneo(bneoQuantity, account);
+    private static int getPoolObservationCount() {
+        return Storage.getIntOrZero(RTX(), POOL_OBSERVATION_COUNT_KEY());
+    }
+
+    private static PoolObservation getPoolObservation(int index) {
+        ByteString storageVal = POOL_OBSERVATION_MAP().get(Helper.toByteArray(index % MAX_POOL_OBSERVATIONS()));
+        return (PoolObservation) (new StdLib()).deserialize(storageVal);
     }
 
     /**
-     * Mint and transfer the corresponding quantity of cNEO to the account
-     * 
-     * @param account      the account that is depositing bNEO
-     * @param bneoQuantity the quantity of bNEO to be locked
+     * Append the current reserve ratio and cNEO supply to the ratio history,
+     * overwriting the oldest snapshot once the ring buffer is full
+     *
+     * @param config the contract configuration
      */
-    private static void handleBneoDeposit(Hash160 account, int bneoQuantity) {
-        validateHash160(account, "account");
-        validateNonNegativeNumber(bneoQuantity, "bneoQuantity");
+    private static void recordRatioSnapshot(Config config) {
+        ReserveSnapshot reserves = getReserveSnapshot(config);
+        RatioSnapshot snapshot = new RatioSnapshot();
+        snapshot.timestamp = Runtime.getTime();
+        snapshot.reserveRatio = getReserveRatioInternal(reserves);
+        snapshot.cneoSupply = reserves.cneoSupply;
 
-        mintCneoFromBneo(bneoQuantity, account);
+        int count = getRatioHistoryCount();
+        RATIO_SNAPSHOT_MAP().put(Helper.toByteArray(count % MAX_RATIO_SNAPSHOTS()), (new StdLib()).serialize(snapshot));
+        Storage.put(CTX(), RATIO_SNAPSHOT_COUNT_KEY(), count + 1);
     }
 
-    private static void setLastCompounded(int lastCompounded) {
-        validatePositiveNumber(lastCompounded, "lastCompounded");
+    private static int getOldestRatioSnapshotIndex(int count) {
+        return Math.max(count - MAX_RATIO_SNAPSHOTS(), 0);
+    }
 
-        Storage.put(CTX(), LAST_COMPOUNDED_KEY(), lastCompounded);
+    private static RatioSnapshot getRatioSnapshot(int index) {
+        ByteString storageVal = RATIO_SNAPSHOT_MAP().get(Helper.toByteArray(index % MAX_RATIO_SNAPSHOTS()));
+        return (RatioSnapshot) (new StdLib()).deserialize(storageVal);
     }
 
-    private static boolean transferGas(Hash160 to, int quantity) {
-        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+    private static int computeMinBneoIn(Config config, int bneoQuantity) {
+        int basisPoints = BASIS_POINTS();
+
+        return (bneoQuantity * (basisPoints - config.maxSlippageBasisPoints)) / basisPoints;
+    }
+
+    /**
+     * Quote the direct GAS-bNEO path and every whitelisted route at current reserves
+     * and pick the one returning the most bNEO
+     *
+     * @param config      the contract configuration
+     * @param gasQuantity the quantity of GAS to swap
+     * @return the best path and the bNEO it would return, before slippage
+     */
+    private static SwapQuote findBestSwapQuote(Config config, int gasQuantity) {
         GasToken gasContract = new GasToken();
-        return gasContract.transfer(cneoHash, to, quantity, null);
+        FlamingoSwapRouterContract swapRouterContract = new FlamingoSwapRouterContract(config.swapRouterHash);
+
+        Hash160[] bestPath = new Hash160[]{ gasContract.getHash(), config.bneoHash };
+        int bestBneoQuantity = quoteSwapPath(swapRouterContract, bestPath, gasQuantity);
+
+        List<SwapRoute> routes = getSwapRoutesInternal();
+        for (int i = 0; i < routes.size(); i++) {
+            Hash160[] path = routes.get(i).path;
+            int bneoQuantity = quoteSwapPath(swapRouterContract, path, gasQuantity);
+            if (bneoQuantity > bestBneoQuantity) {
+                bestPath = path;
+                bestBneoQuantity = bneoQuantity;
+            }
+        }
+        return new SwapQuote(bestPath, bestBneoQuantity);
     }
 
     /**
-     * Mint cNEO corresponding to incoming bNEO
+     * Quote a swap hop by hop the same way the router computes it
      *
-     * @param bneoQuantity the quantity of bNEO to be locked
-     * @param account      the account to which the cNEO is to be minted
+     * @param swapRouterContract the swap router
+     * @param path               the tokens to swap through
+     * @param amountIn           the quantity of the first token to swap
+     * @return the quantity of the last token the router would return
      */
-    private static void mintCneoFromBneo(int bneoQuantity, Hash160 account) {
-        // We have to use the *old* reserve ratio,
-        // before the bneoQuantity has been received by the contract
-        int prevBneoReserves = getBneoReserves() - bneoQuantity;
-        assert prevBneoReserves >= 0;
+    private static int quoteSwapPath(FlamingoSwapRouterContract swapRouterContract, Hash160[] path, int amountIn) {
+        int amountOut = amountIn;
+        for (int i = 0; i < path.length - 1; i++) {
+            List<Integer> reserves = swapRouterContract.getReserves(path[i], path[i + 1]);
+            amountOut = swapRouterContract.getAmountOut(amountOut, reserves.get(0), reserves.get(1));
+        }
+        return amountOut;
+    }
 
-        int neoReserves = getNeoReserves();
-        int cneoSupply = totalSupply();
-        int reserveRatio = getReserveRatioInternal(prevBneoReserves, neoReserves, cneoSupply);
+    private static List<SwapRoute> getSwapRoutesInternal() {
+        StdLib stdLib = new StdLib();
+        List<SwapRoute> routes = new List<SwapRoute>();
+        Iterator<Iterator.Struct<ByteString, ByteString>> iterator = SWAP_ROUTE_MAP().find(FindOptions.RemovePrefix);
+        while (iterator.next()) {
+            routes.add((SwapRoute) stdLib.deserialize(iterator.get().value));
+        }
+        return routes;
+    }
 
-        // As total reserves increase, the quantity of cNEO minted per bNEO decreases
-        int cneoQuantity = (FLOAT_MULTIPLIER() * bneoQuantity) / reserveRatio;
+    private static int getSwapRouteCount() {
+        return Storage.getIntOrZero(RTX(), SWAP_ROUTE_COUNT_KEY());
+    }
 
-        int newSupply = totalSupply() + cneoQuantity;
-        int maxSupply = getMaxSupply();
-        assert newSupply <= maxSupply;
+    private static boolean isSamePath(Hash160[] a, Hash160[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (!a[i].equals(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        mint(account, cneoQuantity);
+    private static boolean isApprovedPair(StorageMap approvedPairMap, Hash160 pairHash) {
+        return approvedPairMap.getIntOrZero(pairHash.toByteArray()) > 0;
+    }
+
+    private static void addToApprovedPair(StorageMap approvedPairMap, Hash160 pairHash, int value) {
+        int routeCount = approvedPairMap.getIntOrZero(pairHash.toByteArray()) + value;
+        if (routeCount == 0) {
+            approvedPairMap.delete(pairHash.toByteArray());
+        } else {
+            approvedPairMap.put(pairHash.toByteArray(), routeCount);
+        }
     }
 
     /**
-     * Swap the incoming quantity of GAS to bNEO on Flamingo
+     * Resolve the GAS-bNEO swap pair once both the bNEO and swap factory hashes are known
+     * The caller is responsible for persisting the config
      *
-     * @param gasQuantity the quantity of incoming GAS
-     * @return the quantity of bNEO added to the reserves
+     * @param config the contract configuration to update
      */
-    private static int swapGasForBneo(int gasQuantity) {
-        validateNonNegativeNumber(gasQuantity, "gasQuantity");
-
-        // Protect against attackers swapping too much GAS at once
-        assert gasQuantity <= getMaxSwapGas();
+    private static void refreshSwapPairScriptHash(Config config) {
+        if (config.bneoHash.isZero() || config.swapFactoryHash.isZero()) {
+            return;
+        }
 
         GasToken gasContract = new GasToken();
-        Hash160 bneoHash = getBneoScriptHash();
-        Hash160 cneoHash = Runtime.getExecutingScriptHash();
-        FlamingoSwapRouterContract swapRouterContract = new FlamingoSwapRouterContract(getSwapRouterScriptHash());
-        String balanceOf = BALANCE_OF();
+        FlamingoSwapFactoryContract swapFactoryContract = new FlamingoSwapFactoryContract(config.swapFactoryHash);
+        Hash160 swapPairHash = swapFactoryContract.getExchangePair(gasContract.getHash(), config.bneoHash);
+        validateContract(swapPairHash, "swapPairHash");
 
-        int beforeBalance = (int) Contract.call(bneoHash, balanceOf, CallFlags.ReadOnly, new Object[]{cneoHash});
-        Hash160[] paths = new Hash160[]{ gasContract.getHash(), bneoHash };
-        int minBneoIn = computeMinBneoIn(gasQuantity);
-        int deadline = Runtime.getTime();
-        addToApprovedSwapQuantity(gasQuantity);
-        boolean swapSuccess = swapRouterContract.swapTokenInForTokenOut(gasQuantity, minBneoIn, paths, deadline);
-        assert swapSuccess;
+        config.swapPairHash = swapPairHash;
+        onSetSwapPairScriptHash.fire(swapPairHash);
+    }
 
-        int afterBalance = (int) Contract.call(bneoHash, balanceOf, CallFlags.ReadOnly, new Object[]{cneoHash});
-        int bneoQuantity = afterBalance - beforeBalance;
+    /**
+     * Scale the compound period so that the GAS accrued over it matches targetSwapGas
+     * Each step at most halves or doubles the period so that one outlier cannot swing it
+     *
+     * @param config         the contract configuration
+     * @param gasToSwap      the GAS accrued for holders since the previous compound
+     * @param lastCompounded the time of the previous compound, 0 if there was none
+     */
+    private static void adjustCompoundPeriod(Config config, int gasToSwap, int lastCompounded) {
+        if (config.targetSwapGas == 0 || lastCompounded == 0) {
+            return;
+        }
 
-        return bneoQuantity;
+        int elapsed = Runtime.getTime() - lastCompounded;
+        int compoundPeriod = config.compoundPeriod;
+        int nextCompoundPeriod = compoundPeriod * 2;
+        if (gasToSwap > 0) {
+            nextCompoundPeriod = Math.min((config.targetSwapGas * elapsed) / gasToSwap, nextCompoundPeriod);
+        }
+        nextCompoundPeriod = Math.max(nextCompoundPeriod, compoundPeriod / 2);
+        nextCompoundPeriod = Math.min(Math.max(nextCompoundPeriod, config.minCompoundPeriod), config.maxCompoundPeriod);
+
+        if (nextCompoundPeriod != compoundPeriod) {
+            config.compoundPeriod = nextCompoundPeriod;
+            putConfig(config);
+            onSetCompoundPeriod.fire(nextCompoundPeriod);
+        }
     }
 
-    private static int computeMinBneoIn(int gasQuantity) {
-        GasToken gasContract = new GasToken();
-        FlamingoSwapRouterContract swapRouterContract = new FlamingoSwapRouterContract(getSwapRouterScriptHash());
+    private static Config createDefaultConfig() {
+        Config config = new Config();
+        config.bneoHash = Hash160.zero();
+        config.voterHash = Hash160.zero();
+        config.swapFactoryHash = Hash160.zero();
+        config.swapRouterHash = Hash160.zero();
+        config.swapPairHash = Hash160.zero();
+        config.bneoMultiplier = 0;
+        config.compoundPeriod = INITIAL_COMPOUND_PERIOD();
+        config.feeBasisPoints = INITIAL_FEE_BASIS_POINTS();
+        config.maxFeeBasisPoints = INITIAL_MAX_FEE_BASIS_POINTS();
+        config.gasReward = 0;
+        config.maxGasReward = INITIAL_MAX_GAS_REWARD();
+        config.maxSlippageBasisPoints = INITIAL_MAX_SLIPPAGE_BASIS_POINTS();
+        config.maxSwapGas = INITIAL_MAX_SWAP_GAS();
+        config.exitFee = INITIAL_EXIT_FEE();
+        config.maxSupply = INITIAL_MAX_SUPPLY();
+        config.voteNeoDeposits = false;
+        config.maxTrancheBasisPoints = 0;
+        config.targetSwapGas = 0;
+        config.minCompoundPeriod = INITIAL_COMPOUND_PERIOD();
+        config.maxCompoundPeriod = INITIAL_COMPOUND_PERIOD();
+        config.twapWindow = 0;
+        config.targetBufferBasisPoints = 0;
+        config.bufferToleranceBasisPoints = 0;
+        return config;
+    }
+
+    private static void putConfig(Config config) {
+        Storage.put(CTX(), CONFIG_KEY(), (new StdLib()).serialize(config));
+    }
+
+    private static void putStats(Stats stats) {
+        Storage.put(CTX(), STATS_KEY(), (new StdLib()).serialize(stats));
+    }
+
+    private static void addToBneoBought(int bneoQuantity) {
+        if (bneoQuantity > 0) {
+            Stats stats = getStats();
+            stats.bneoBought += bneoQuantity;
+            putStats(stats);
+        }
+    }
 
-        List<Integer> reserves = swapRouterContract.getReserves(gasContract.getHash(), getBneoScriptHash());
-        int bneoQuantity = swapRouterContract.getAmountOut(gasQuantity, reserves.get(0), reserves.get(1));
-        int basisPoints = BASIS_POINTS();
+    private static void addToExitFeesRetained(int bneoQuantity) {
+        if (bneoQuantity > 0) {
+            Stats stats = getStats();
+            stats.exitFeesRetained += bneoQuantity;
+            putStats(stats);
+        }
+    }
+
+    /**
+     * Append the default of every Config field added since the stored config was written
+     * A serialized Config is the array of its fields, so its length is the field count it was stored with
+     */
+    private static void extendConfig() {
+        StdLib stdLib = new StdLib();
+        List<Object> stored = (List<Object>) stdLib.deserialize(Storage.get(RTX(), CONFIG_KEY()));
+        List<Object> defaults = (List<Object>) (Object) createDefaultConfig();
+        if (stored.size() >= defaults.size()) {
+            return;
+        }
 
-        return (bneoQuantity * (basisPoints - getMaxSlippageBasisPoints())) / basisPoints;
+        for (int i = stored.size(); i < defaults.size(); i++) {
+            stored.add(defaults.get(i));
+        }
+        Storage.put(CTX(), CONFIG_KEY(), stdLib.serialize(stored));
     }
 
-    private static void halveCompoundPeriod() {
-        int newCompoundPeriod = getCompoundPeriod() / 2;
-        Storage.put(CTX(), COMPOUND_PERIOD_KEY(), newCompoundPeriod);
-        onSetCompoundPeriod.fire(newCompoundPeriod);
+    /**
+     * Carry the values stored under the legacy per-field keys over to CONFIG_KEY
+     * and delete the legacy keys
+     */
+    private static void migrateConfig() {
+        StorageContext ctx = CTX();
+        Config config = createDefaultConfig();
+
+        Hash160 bneoHash = Storage.getHash160(ctx, BNEO_HASH_KEY());
+        if (bneoHash != null) {
+            config.bneoHash = bneoHash;
+            Integer bneoMultiplier = Storage.getInt(ctx, BNEO_MULTIPLIER_KEY());
+            config.bneoMultiplier = bneoMultiplier == null ? computeBneoMultiplier(bneoHash) : bneoMultiplier;
+        }
+        Hash160 voterHash = Storage.getHash160(ctx, VOTER_HASH_KEY());
+        if (voterHash != null) {
+            config.voterHash = voterHash;
+        }
+        Hash160 swapFactoryHash = Storage.getHash160(ctx, SWAP_FACTORY_HASH_KEY());
+        if (swapFactoryHash != null) {
+            config.swapFactoryHash = swapFactoryHash;
+        }
+        Hash160 swapRouterHash = Storage.getHash160(ctx, SWAP_ROUTER_HASH_KEY());
+        if (swapRouterHash != null) {
+            config.swapRouterHash = swapRouterHash;
+        }
+        Hash160 swapPairHash = Storage.getHash160(ctx, SWAP_PAIR_HASH_KEY());
+        if (swapPairHash != null) {
+            config.swapPairHash = swapPairHash;
+        } else {
+            refreshSwapPairScriptHash(config);
+        }
+
+        Integer storageVal = Storage.getInt(ctx, COMPOUND_PERIOD_KEY());
+        if (storageVal != null) {
+            config.compoundPeriod = storageVal;
+        }
+        storageVal = Storage.getInt(ctx, FEE_BASIS_POINTS_KEY());
+        if (storageVal != null) {
+            config.feeBasisPoints = storageVal;
+        }
+        storageVal = Storage.getInt(ctx, MAX_FEE_BASIS_POINTS_KEY());
+        if (storageVal != null) {
+            config.maxFeeBasisPoints = storageVal;
+        }
+        config.gasReward = Storage.getIntOrZero(ctx, GAS_REWARD_KEY());
+        storageVal = Storage.getInt(ctx, MAX_GAS_REWARD_KEY());
+        if (storageVal != null) {
+            config.maxGasReward = storageVal;
+        }
+        storageVal = Storage.getInt(ctx, MAX_SLIPPAGE_BASIS_POINTS_KEY());
+        if (storageVal != null) {
+            config.maxSlippageBasisPoints = storageVal;
+        }
+        storageVal = Storage.getInt(ctx, MAX_SWAP_GAS_KEY());
+        if (storageVal != null) {
+            config.maxSwapGas = storageVal;
+        }
+        storageVal = Storage.getInt(ctx, EXIT_FEE_KEY());
+        if (storageVal != null) {
+            config.exitFee = storageVal;
+        }
+        storageVal = Storage.getInt(ctx, MAX_SUPPLY_KEY());
+        if (storageVal != null) {
+            config.maxSupply = storageVal;
+        }
+
+        putConfig(config);
+
+        Storage.delete(ctx, BNEO_HASH_KEY());
+        Storage.delete(ctx, BNEO_MULTIPLIER_KEY());
+        Storage.delete(ctx, VOTER_HASH_KEY());
+        Storage.delete(ctx, SWAP_FACTORY_HASH_KEY());
+        Storage.delete(ctx, SWAP_ROUTER_HASH_KEY());
+        Storage.delete(ctx, SWAP_PAIR_HASH_KEY());
+        Storage.delete(ctx, COMPOUND_PERIOD_KEY());
+        Storage.delete(ctx, FEE_BASIS_POINTS_KEY());
+        Storage.delete(ctx, MAX_FEE_BASIS_POINTS_KEY());
+        Storage.delete(ctx, GAS_REWARD_KEY());
+        Storage.delete(ctx, MAX_GAS_REWARD_KEY());
+        Storage.delete(ctx, MAX_SLIPPAGE_BASIS_POINTS_KEY());
+        Storage.delete(ctx, MAX_SWAP_GAS_KEY());
+        Storage.delete(ctx, EXIT_FEE_KEY());
+        Storage.delete(ctx, MAX_SUPPLY_KEY());
     }
 
     private static void mint(Hash160 account, int mintQuantity) {
@@ -903,6 +3026,10 @@ public class CompoundingNeo {
         if (mintQuantity != 0) {
             addToSupply(mintQuantity);
             addToBalance(account, mintQuantity);
+
+            Stats stats = getStats();
+            stats.totalMinted += mintQuantity;
+            putStats(stats);
     
             onTransfer.fire(null, account, mintQuantity);
             postTransfer(null, account, mintQuantity, null);
@@ -922,6 +3049,10 @@ public class CompoundingNeo {
         if (burnQuantity != 0) {
             deductFromSupply(burnQuantity);
             deductFromBalance(account, burnQuantity);
+
+            Stats stats = getStats();
+            stats.totalBurned += burnQuantity;
+            putStats(stats);
     
             onTransfer.fire(account, null, burnQuantity);
         }
@@ -971,35 +3102,182 @@ public class CompoundingNeo {
         return BALANCE_MAP().getIntOrZero(key.toByteArray());
     }
 
-    private static int getBneoMultiplier() {
-        Hash160 bneoHash = getBneoScriptHash();
+    /**
+     * Compare two storage keys in the byte order Storage.find returns them in
+     *
+     * @return a negative number, 0 or a positive number if a sorts before, equal to or after b
+     */
+    private static int compareStorageKeys(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static int computeBneoMultiplier(Hash160 bneoHash) {
         int bneoDecimals = (int) Contract.call(bneoHash, "decimals", CallFlags.ReadOnly, new Object[]{});
         return Helper.pow(10, bneoDecimals);
     }
 
-    private static void validateCompoundTime() {
+    /**
+     * Assert that a compound period has passed and record this compound
+     *
+     * @param config the contract configuration
+     * @return the time of the previous compound, 0 if there was none
+     */
+    private static int validateCompoundTime(Config config) {
         int curTime = Runtime.getTime();
-        int nextCompound = getLastCompounded() + getCompoundPeriod();
+        int lastCompounded = getLastCompounded();
+        int nextCompound = lastCompounded + config.compoundPeriod;
         assert curTime >= nextCompound;
 
         setLastCompounded(curTime);
+        return lastCompounded;
+    }
+
+    private static int getActualBneoBalance(Config config) {
+        if (config.bneoHash.isZero()) {
+            return 0;
+        }
+        FungibleToken bneoContract = new FungibleToken(config.bneoHash);
+        Hash160 cneoHash = Runtime.getExecutingScriptHash();
+        return bneoContract.balanceOf(cneoHash);
+    }
+
+    private static void addToBneoReserves(int value) {
+        Storage.put(CTX(), BNEO_RESERVES_KEY(), getBneoReserves() + value);
+    }
+
+    private static void deductFromBneoReserves(int value) {
+        addToBneoReserves(-value);
+    }
+
+    private static ReserveSnapshot getReserveSnapshot(Config config) {
+        return createReserveSnapshot(config, getBneoReserves(), getNeoReserves(), totalSupply());
+    }
+
+    private static int getVoterCount() {
+        return Storage.getIntOrZero(RTX(), VOTER_COUNT_KEY());
+    }
+
+    private static boolean isVoter(Hash160 voterHash) {
+        return VOTER_MAP().get(voterHash.toByteArray()) != null;
+    }
+
+    private static List<Hash160> getVoters() {
+        List<Hash160> voters = new List<Hash160>();
+        Iterator<Iterator.Struct<ByteString, ByteString>> iterator = VOTER_MAP().find(FindOptions.RemovePrefix);
+        while (iterator.next()) {
+            voters.add(new Hash160(iterator.get().key));
+        }
+        return voters;
+    }
+
+    /**
+     * Start tracking a voter along with any NEO it already holds
+     *
+     * @param voterHash the CompoundingNeoVoter to register
+     */
+    private static void registerVoter(Hash160 voterHash) {
+        assert getVoterCount() < MAX_VOTERS();
+
+        int neoQuantity = (new NeoToken()).balanceOf(voterHash);
+        VOTER_MAP().put(voterHash.toByteArray(), neoQuantity);
+        Storage.put(CTX(), VOTER_COUNT_KEY(), getVoterCount() + 1);
+        addToNeoReserves(neoQuantity);
+        onAddVoter.fire(voterHash);
     }
 
-    private static int getReserveRatioInternal(int bneoReserves, int neoReserves, int cneoSupply) {
-        int totalReserves = getTotalReservesInternal(bneoReserves, neoReserves);
+    /**
+     * New NEO goes to the voter holding the least of it so that votes stay spread out
+     *
+     * @return the voter holding the least NEO
+     */
+    private static Hash160 selectDepositVoter() {
+        Hash160 selectedHash = getConfig().voterHash;
+        int selectedNeo = getVoterNeoReserves(selectedHash);
+
+        Iterator<Iterator.Struct<ByteString, ByteString>> iterator = VOTER_MAP().find(FindOptions.RemovePrefix);
+        while (iterator.next()) {
+            Iterator.Struct<ByteString, ByteString> entry = iterator.get();
+            int neoQuantity = entry.value.toInt();
+            if (neoQuantity < selectedNeo) {
+                selectedHash = new Hash160(entry.key);
+                selectedNeo = neoQuantity;
+            }
+        }
+        return selectedHash;
+    }
+
+    /**
+     * Withdraw neoQuantity NEO from the voters,
+     * from a single voter if one holds enough and otherwise across voters in registry order
+     *
+     * @param neoQuantity the quantity of NEO to withdraw
+     * @param recipient   the account to send the NEO to, or null to wrap it into bNEO for this contract
+     */
+    private static void withdrawFromVoters(int neoQuantity, Hash160 recipient) {
+        List<Hash160> voters = getVoters();
+        for (int i = 0; i < voters.size(); i++) {
+            Hash160 voterHash = voters.get(i);
+            if (getVoterNeoReserves(voterHash) >= neoQuantity) {
+                withdrawFromVoter(voterHash, neoQuantity, recipient);
+                return;
+            }
+        }
+
+        int remainingQuantity = neoQuantity;
+        for (int i = 0; i < voters.size() && remainingQuantity > 0; i++) {
+            Hash160 voterHash = voters.get(i);
+            int withdrawQuantity = Math.min(getVoterNeoReserves(voterHash), remainingQuantity);
+            if (withdrawQuantity > 0) {
+                withdrawFromVoter(voterHash, withdrawQuantity, recipient);
+                remainingQuantity -= withdrawQuantity;
+            }
+        }
+        assert remainingQuantity == 0;
+    }
+
+    private static void withdrawFromVoter(Hash160 voterHash, int neoQuantity, Hash160 recipient) {
+        // The ledger is updated before the voter hands control to the recipient
+        addToVoterNeoReserves(voterHash, -neoQuantity);
+
+        CompoundingNeoVoterContract voterContract = new CompoundingNeoVoterContract(voterHash);
+        if (recipient == null) {
+            assert voterContract.withdrawBneo(neoQuantity);
+        } else {
+            assert voterContract.withdrawNeo(recipient, neoQuantity);
+        }
+    }
+
+    private static void addToVoterNeoReserves(Hash160 voterHash, int value) {
+        VOTER_MAP().put(voterHash.toByteArray(), getVoterNeoReserves(voterHash) + value);
+        addToNeoReserves(value);
+    }
+
+    private static void addToNeoReserves(int value) {
+        Storage.put(CTX(), NEO_RESERVES_KEY(), getNeoReserves() + value);
+    }
+
+    private static ReserveSnapshot createReserveSnapshot(Config config, int bneoReserves, int neoReserves, int cneoSupply) {
+        int totalReserves = bneoReserves + (neoReserves * config.bneoMultiplier);
+        return new ReserveSnapshot(bneoReserves, neoReserves, totalReserves, cneoSupply);
+    }
+
+    private static int getReserveRatioInternal(ReserveSnapshot snapshot) {
         int floatMultiplier = FLOAT_MULTIPLIER();
 
         // Special case when cNEO supply is 0
-        if (cneoSupply == 0) {
+        if (snapshot.cneoSupply == 0) {
             return floatMultiplier;
         }
 
         // Otherwise, this is a valid number
-        return (floatMultiplier * totalReserves) / cneoSupply;
-    }
-
-    private static int getTotalReservesInternal(int bneoReserves, int neoReserves) {
-        return bneoReserves + (neoReserves * getBneoMultiplier());
+        return (floatMultiplier * snapshot.totalReserves) / snapshot.cneoSupply;
     }
 
     private static void validateHash160(Hash160 hash, String hashName) {
@@ -19,6 +19,7 @@ import io.neow3j.devpack.constants.CallFlags;
 import io.neow3j.devpack.contracts.ContractManagement;
 import io.neow3j.devpack.contracts.FungibleToken;
 import io.neow3j.devpack.contracts.GasToken;
+import io.neow3j.devpack.contracts.LedgerContract;
 import io.neow3j.devpack.contracts.NeoToken;
 import io.neow3j.devpack.events.Event1Arg;
 
@@ -39,6 +40,8 @@ public class CompoundingNeoVoter {
     private static final byte[] OWNER_KEY() { return new byte[]{0x00}; }
     private static final byte[] BNEO_HASH_KEY() { return new byte[]{0x01}; }
     private static final byte[] CNEO_HASH_KEY() { return new byte[]{0x02}; }
+    private static final byte[] BNEO_MULTIPLIER_KEY() { return new byte[]{0x03}; }
+    private static final byte[] CLAIM_THRESHOLD_KEY() { return new byte[]{0x04}; }
 
     // Hex strings
     private static final ByteString VOTE() { return new ByteString("vote"); }
@@ -46,6 +49,9 @@ public class CompoundingNeoVoter {
     // Events
     @DisplayName("SetOwner")
     private static Event1Arg<Hash160> onSetOwner;
+
+    @DisplayName("SetClaimThreshold")
+    private static Event1Arg<Integer> onSetClaimThreshold;
     
     // Lifecycle Methods
     @OnDeployment
@@ -89,7 +95,10 @@ public class CompoundingNeoVoter {
         validateOwner("setBneoScriptHash");
         validateContract(bneoHash, "bneoHash");
 
-        Storage.put(CTX(), BNEO_HASH_KEY(), bneoHash);
+        StorageContext ctx = CTX();
+        Storage.put(ctx, BNEO_HASH_KEY(), bneoHash);
+        // bNEO decimals never change, so we resolve the multiplier once here
+        Storage.put(ctx, BNEO_MULTIPLIER_KEY(), computeBneoMultiplier(bneoHash));
     }
 
     @Safe
@@ -111,6 +120,24 @@ public class CompoundingNeoVoter {
         return storageVal == null ? Hash160.zero() : storageVal;
     }
 
+    /**
+     * Set the minimum quantity of GAS worth claiming and forwarding to cNEO
+     *
+     * @param claimThreshold the minimum GAS quantity, 0 to claim any non-zero quantity
+     */
+    public static void setClaimThreshold(int claimThreshold) {
+        validateOwner("setClaimThreshold");
+        validateNonNegativeNumber(claimThreshold, "claimThreshold");
+
+        Storage.put(CTX(), CLAIM_THRESHOLD_KEY(), claimThreshold);
+        onSetClaimThreshold.fire(claimThreshold);
+    }
+
+    @Safe
+    public static int getClaimThreshold() {
+        return Storage.getIntOrZero(RTX(), CLAIM_THRESHOLD_KEY());
+    }
+
     public static void vote(ECPoint candidate) {
         validateOwner("vote");
         validateECPoint(candidate, "vote");
@@ -150,7 +177,13 @@ public class CompoundingNeoVoter {
         }
     }
 
-    public static boolean claimGas() {
+    /**
+     * cNEO compound - claim the GAS generated by our NEO and forward it to cNEO
+     * Nothing is transferred if less than the claim threshold is available
+     *
+     * @return the quantity of GAS forwarded to cNEO
+     */
+    public static int claimGas() {
         Hash160 voterHash = Runtime.getExecutingScriptHash();
         Hash160 cneoHash = getCneoScriptHash();
         NeoToken neoContract = new NeoToken();
@@ -158,9 +191,21 @@ public class CompoundingNeoVoter {
 
         validateAccount(cneoHash, "claimGas");
 
-        assert neoContract.transfer(voterHash, voterHash, 0, null);
+        // The NEO self-transfer below would claim GAS up to the block being persisted
+        int nextIndex = (new LedgerContract()).currentIndex() + 1;
+        int unclaimedGas = neoContract.unclaimedGas(voterHash, nextIndex);
         int gasBalance = gasContract.balanceOf(voterHash);
-        return gasContract.transfer(voterHash, cneoHash, gasBalance, null);
+        int claimableGas = unclaimedGas + gasBalance;
+        if (claimableGas == 0 || claimableGas < getClaimThreshold()) {
+            return 0;
+        }
+
+        if (unclaimedGas > 0) {
+            assert neoContract.transfer(voterHash, voterHash, 0, null);
+            gasBalance = gasContract.balanceOf(voterHash);
+        }
+        assert gasContract.transfer(voterHash, cneoHash, gasBalance, null);
+        return gasBalance;
     }
 
     /**
@@ -192,8 +237,31 @@ public class CompoundingNeoVoter {
         return bneoContract.transfer(voterHash, cneoHash, bneoQuantity, null);
     }
 
+    /**
+     * cNEO NEO redemption - send NEO straight to the redeeming account
+     *
+     * @param account     the account that receives the NEO
+     * @param neoQuantity the quantity of NEO to send
+     */
+    public static boolean withdrawNeo(Hash160 account, int neoQuantity) {
+        Hash160 cneoHash = getCneoScriptHash();
+        validateAccount(cneoHash, "withdrawNeo");
+        validateHash160(account, "account");
+        validatePositiveNumber(neoQuantity, "neoQuantity");
+
+        Hash160 voterHash = Runtime.getExecutingScriptHash();
+        NeoToken neoContract = new NeoToken();
+        assert neoQuantity <= neoContract.balanceOf(voterHash);
+
+        return neoContract.transfer(voterHash, account, neoQuantity, null);
+    }
+
     private static int getBneoMultiplier() {
-        Hash160 bneoHash = getBneoScriptHash();
+        final Integer storageVal = Storage.getInt(RTX(), BNEO_MULTIPLIER_KEY());
+        return storageVal == null ? computeBneoMultiplier(getBneoScriptHash()) : storageVal;
+    }
+
+    private static int computeBneoMultiplier(Hash160 bneoHash) {
         int bneoDecimals = (int) Contract.call(bneoHash, "decimals", CallFlags.ReadOnly, new Object[]{});
         return Helper.pow(10, bneoDecimals);
     }
@@ -217,6 +285,13 @@ public class CompoundingNeoVoter {
         assert number > 0;
     }
 
+    private static void validateNonNegativeNumber(int number, String numberName) {
+        // Keeping this here so we can use it later if asserts later support messages
+        // StdLib stdLib = new StdLib();
+        // String message = "The parameter '" + numberName + "'=" + stdLib.itoa(number, 10) + " must be non-negative";
+        assert number >= 0;
+    }
+
     private static void validateECPoint(ECPoint ecPoint, String hashName) {
         // Keeping this here so we can use it later if asserts later support messages
         // String message = "The parameter '" + hashName + "' must be a 33-byte address";
@@ -0,0 +1,16 @@
+package com.neocompounder.cneo.interfaces;
+
+import io.neow3j.devpack.contracts.ContractInterface;
+import io.neow3j.devpack.Hash160;
+
+public class BurgerNeoContract extends ContractInterface {
+    public BurgerNeoContract(String contractHash) {
+        super(contractHash);
+    }
+
+    public BurgerNeoContract(Hash160 contractHash) {
+        super(contractHash);
+    }
+
+    public native int reward(Hash160 account);
+}
@@ -12,6 +12,8 @@ public class CompoundingNeoVoterContract extends ContractInterface {
         super(contractHash);
     }
 
-    public native boolean claimGas();
+    public native int claimGas();
+    public native int getClaimThreshold();
     public native boolean withdrawBneo(int neoQuantity);
+    public native boolean withdrawNeo(Hash160 account, int neoQuantity);
 }
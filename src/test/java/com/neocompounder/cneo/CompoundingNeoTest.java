@@ -9,6 +9,7 @@ import io.neow3j.protocol.core.response.NeoApplicationLog;
 import io.neow3j.protocol.core.response.NeoInvokeFunction;
 import io.neow3j.protocol.core.response.Notification;
 import io.neow3j.protocol.core.stackitem.StackItem;
+import io.neow3j.script.ScriptBuilder;
 import io.neow3j.test.ContractTest;
 import io.neow3j.test.ContractTestExtension;
 import io.neow3j.test.DeployConfig;
@@ -17,6 +18,7 @@ import io.neow3j.test.ContractTestExtension.GenesisAccount;
 import io.neow3j.transaction.AccountSigner;
 import io.neow3j.transaction.ContractSigner;
 import io.neow3j.transaction.Transaction;
+import io.neow3j.transaction.TransactionBuilder;
 import io.neow3j.transaction.Witness;
 import io.neow3j.transaction.exceptions.TransactionConfigurationException;
 import io.neow3j.types.ContractParameter;
@@ -36,22 +38,26 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import com.neocompounder.cneo.mock.BNeoToken;
 import com.neocompounder.cneo.mock.BurgerAgent;
 import com.neocompounder.cneo.mock.FlamingoSwapFactoryRouterPair;
+import com.neocompounder.cneo.mock.ReentrantRedeemer;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.List;
 
 import static io.neow3j.types.ContractParameter.any;
 import static io.neow3j.types.ContractParameter.array;
+import static io.neow3j.types.ContractParameter.bool;
 import static io.neow3j.types.ContractParameter.hash160;
 import static io.neow3j.types.ContractParameter.integer;
 import static io.neow3j.types.ContractParameter.publicKey;
 import static io.neow3j.types.ContractParameter.string;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
-@ContractTest(blockTime = 1, contracts = { CompoundingNeo.class, CompoundingNeoVoter.class, BNeoToken.class, BurgerAgent.class, FlamingoSwapFactoryRouterPair.class }, configFile="default.neo-express")
+@ContractTest(blockTime = 1, contracts = { CompoundingNeo.class, CompoundingNeoVoter.class, BNeoToken.class, BurgerAgent.class, FlamingoSwapFactoryRouterPair.class, ReentrantRedeemer.class }, configFile="default.neo-express")
 public class CompoundingNeoTest {
 
     private static final String SET_OWNER = "setOwner";
@@ -78,6 +84,49 @@ public class CompoundingNeoTest {
     private static final String SET_VOTER_SCRIPT_HASH = "setVoterScriptHash";
     private static final String SET_SWAP_FACTORY_SCRIPT_HASH = "setSwapFactoryScriptHash";
     private static final String SET_SWAP_ROUTER_SCRIPT_HASH = "setSwapRouterScriptHash";
+    private static final String GET_SWAP_PAIR_SCRIPT_HASH = "getSwapPairScriptHash";
+    private static final String GET_CONFIG = "getConfig";
+    private static final String RECONCILE_BNEO_RESERVES = "reconcileBneoReserves";
+    private static final String TRANSFER_MANY = "transferMany";
+    private static final String SET_VOTE_NEO_DEPOSITS = "setVoteNeoDeposits";
+    private static final String GET_VOTE_NEO_DEPOSITS = "getVoteNeoDeposits";
+    private static final String PREVIEW_COMPOUND = "previewCompound";
+    private static final String PREVIEW_MINT = "previewMint";
+    private static final String PREVIEW_MINT_FROM_NEO = "previewMintFromNeo";
+    private static final String PREVIEW_REDEEM = "previewRedeem";
+    private static final String ADD_VOTER = "addVoter";
+    private static final String REMOVE_VOTER = "removeVoter";
+    private static final String GET_VOTER_SCRIPT_HASHES = "getVoterScriptHashes";
+    private static final String GET_VOTER_NEO_RESERVES = "getVoterNeoReserves";
+    private static final String RECONCILE_NEO_RESERVES = "reconcileNeoReserves";
+    private static final String SET_CLAIM_THRESHOLD = "setClaimThreshold";
+    private static final String GET_CLAIM_THRESHOLD = "getClaimThreshold";
+    private static final String ADD_SWAP_ROUTE = "addSwapRoute";
+    private static final String REMOVE_SWAP_ROUTE = "removeSwapRoute";
+    private static final String GET_SWAP_ROUTES = "getSwapRoutes";
+    private static final String GET_PENDING_SWAP_GAS = "getPendingSwapGas";
+    private static final String SWAP_PENDING_GAS = "swapPendingGas";
+    private static final String SET_MAX_TRANCHE_BASIS_POINTS = "setMaxTrancheBasisPoints";
+    private static final String GET_GAS_RESERVES = "getGasReserves";
+    private static final String SET_COMPOUND_PERIOD_CONTROLLER = "setCompoundPeriodController";
+    private static final String GET_TARGET_SWAP_GAS = "getTargetSwapGas";
+    private static final String SET_TWAP_WINDOW = "setTwapWindow";
+    private static final String GET_POOL_OBSERVATIONS = "getPoolObservations";
+    private static final String OBSERVE_POOL = "observePool";
+    private static final String SET_BUFFER_BASIS_POINTS = "setBufferBasisPoints";
+    private static final String REBALANCE = "rebalance";
+    private static final String PROCESS_WITHDRAWALS = "processWithdrawals";
+    private static final String GET_PENDING_WITHDRAWALS = "getPendingWithdrawals";
+    private static final String CANCEL_WITHDRAWAL = "cancelWithdrawal";
+    private static final String CLAIM_WITHDRAWAL = "claimWithdrawal";
+    private static final String GET_CLAIMABLE_WITHDRAWAL = "getClaimableWithdrawal";
+    private static final String GET_STATS = "getStats";
+    private static final String GET_RATIO_HISTORY_COUNT = "getRatioHistoryCount";
+    private static final String GET_RATIO_HISTORY = "getRatioHistory";
+    private static final String GET_RATIO_AT = "getRatioAt";
+    private static final String GET_HOLDERS = "getHolders";
+    private static final String BALANCE_OF_BATCH = "balanceOfBatch";
+    private static final String GET_STATE = "getState";
     private static final String SET_BURGER_AGENT_SCRIPT_HASH = "setBurgerAgentScriptHash";
     private static final String GET_TOTAL_RESERVES = "getTotalReserves";
     private static final String GET_BNEO_RESERVES = "getBneoReserves";
@@ -109,6 +158,7 @@ public class CompoundingNeoTest {
     private static SmartContract bNeo;
     private static SmartContract burgerAgent;
     private static SmartContract swapRouter;
+    private static SmartContract redeemer;
     private static Account owner;
     private static Account other;
     private static GenesisAccount genesis;
@@ -123,6 +173,7 @@ public class CompoundingNeoTest {
         bNeo = ext.getDeployedContract(BNeoToken.class);
         burgerAgent = ext.getDeployedContract(BurgerAgent.class);
         swapRouter = ext.getDeployedContract(FlamingoSwapFactoryRouterPair.class);
+        redeemer = ext.getDeployedContract(ReentrantRedeemer.class);
         neoToken = new NeoToken(neow3j);
         gasToken = new GasToken(neow3j);
         transferFromGenesis(neoToken, hash160(genesis.getMultiSigAccount().getScriptHash()),
@@ -175,6 +226,14 @@ public class CompoundingNeoTest {
         return config;
     }
 
+    @DeployConfig(ReentrantRedeemer.class)
+    public static DeployConfiguration configureRedeemer() throws Exception {
+        DeployConfiguration config = new DeployConfiguration();
+        owner = ext.getAccount(OWNER);
+        config.setDeployParam(hash160(owner.getScriptHash()));
+        return config;
+    }
+
     @Order(0)
     @Test
     public void invokeMintWithBneo() throws Throwable {
@@ -188,7 +247,11 @@ public class CompoundingNeoTest {
         setSwapFactoryScriptHash(owner, swapRouter.getScriptHash());
         setBurgerAgentScriptHash(owner, bNeo, burgerAgent.getScriptHash());
 
-        NeoInvokeFunction result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        // The swap pair is resolved through the factory once both hashes are known
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_SWAP_PAIR_SCRIPT_HASH);
+        assertEquals(swapRouter.getScriptHash().toAddress(), result.getInvocationResult().getStack().get(0).getAddress());
+
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
         assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
 
         result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
@@ -589,15 +652,22 @@ public class CompoundingNeoTest {
 
         NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
                 .getApplicationLog().getExecutions().get(0);
-        Notification n8 = execution.getNotifications().get(8);
-        assertEquals("Compound", n8.getEventName());
-        List<StackItem> stackItems = n8.getState().getList();
+        // The voter holds no NEO or GAS yet, so it skips its claim entirely
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals(bNeo.getScriptHash(), n0.getContract());
+        Notification n5 = execution.getNotifications().get(5);
+        assertEquals("Compound", n5.getEventName());
+        List<StackItem> stackItems = n5.getState().getList();
         assertEquals(other.getAddress(), stackItems.get(0).getAddress());
         assertEquals(new BigInteger("1000000000"), stackItems.get(1).getInteger());
         assertEquals(new BigInteger("1000000000"), stackItems.get(2).getInteger());
-        assertEquals(new BigInteger("200000000"), stackItems.get(3).getInteger());
+        assertEquals(new BigInteger("100000000"), stackItems.get(3).getInteger());
         setMaxSwapGas(owner, new BigInteger("500000000000"));
 
+        // Only one 8 GAS tranche was swapped, the remaining 1 GAS waits for the next one
+        result = cNeo.callInvokeFunction(GET_PENDING_SWAP_GAS);
+        assertEquals(new BigInteger("100000000"), result.getInvocationResult().getStack().get(0).getInteger());
+
         // The GAS balance of the invoker decreases by the execution cost and increases by the GAS reward
         result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
         BigInteger afterGas = result.getInvocationResult().getStack().get(0).getInteger();
@@ -617,7 +687,7 @@ public class CompoundingNeoTest {
 
         // We started with 100 GAS
         // Compounding claimed 10 GAS, so we kept 10% of 10 == 1 GAS in fees
-        // Due to the maxGasSwap, we also retained an extra 1 GAS to start with 102 GAS
+        // Due to the maxGasSwap, we also hold 1 GAS pending for the next tranche to start with 102 GAS
         BigInteger gasBalance = new BigInteger("10200000000").subtract(new BigInteger("10000000"));
         result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(cNeo.getScriptHash())));
         assertEquals(gasBalance, result.getInvocationResult().getStack().get(0).getInteger());
@@ -934,8 +1004,11 @@ public class CompoundingNeoTest {
         assertEquals(cNeo.getScriptHash(), new Hash160(ArrayUtils.reverseArray(stackItems.get(1).getByteArray())));
         assertEquals(new BigInteger("51585"), stackItems.get(2).getInteger());
         
+        // The 1 GAS left pending by invokeCompound is swapped along with the new claim
         result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(swapRouter.getScriptHash())));
-        assertEquals(new BigInteger("10890050189"), result.getInvocationResult().getStack().get(0).getInteger());
+        assertEquals(new BigInteger("10990050189"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_PENDING_SWAP_GAS);
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
 
         transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
                 integer(new BigInteger("1000000000")), any(null));
@@ -1021,6 +1094,1312 @@ public class CompoundingNeoTest {
         assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
     }
 
+    @Order(22)
+    @Test
+    public void invokeGetConfig() throws Throwable {
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_CONFIG);
+        List<StackItem> config = result.getInvocationResult().getStack().get(0).getList();
+
+        assertEquals(bNeo.getScriptHash().toAddress(), config.get(0).getAddress());
+        assertEquals(voter.getScriptHash().toAddress(), config.get(1).getAddress());
+        assertEquals(swapRouter.getScriptHash().toAddress(), config.get(2).getAddress());
+        assertEquals(swapRouter.getScriptHash().toAddress(), config.get(3).getAddress());
+        assertEquals(swapRouter.getScriptHash().toAddress(), config.get(4).getAddress());
+        assertEquals(new BigInteger("100000000"), config.get(5).getInteger());
+        assertEquals(new BigInteger("3600000"), config.get(6).getInteger());
+        assertEquals(new BigInteger("1000"), config.get(7).getInteger());
+        assertEquals(new BigInteger("1000"), config.get(8).getInteger());
+        assertEquals(new BigInteger("10000000"), config.get(9).getInteger());
+        assertEquals(new BigInteger("100000000"), config.get(10).getInteger());
+        assertEquals(new BigInteger("1000"), config.get(11).getInteger());
+        assertEquals(new BigInteger("500000000000"), config.get(12).getInteger());
+        assertEquals(new BigInteger("50"), config.get(13).getInteger());
+        assertEquals(new BigInteger("100000000000000"), config.get(14).getInteger());
+        assertEquals(false, config.get(15).getBoolean());
+        assertEquals(new BigInteger("0"), config.get(16).getInteger());
+        assertEquals(new BigInteger("0"), config.get(17).getInteger());
+        assertEquals(new BigInteger("604800000"), config.get(18).getInteger());
+        assertEquals(new BigInteger("604800000"), config.get(19).getInteger());
+        assertEquals(new BigInteger("0"), config.get(20).getInteger());
+        assertEquals(new BigInteger("0"), config.get(21).getInteger());
+        assertEquals(new BigInteger("0"), config.get(22).getInteger());
+
+        // The individual getters read from the same record
+        result = cNeo.callInvokeFunction(GET_COMPOUND_PERIOD);
+        assertEquals(new BigInteger("3600000"), result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(23)
+    @Test
+    public void invokeReconcileBneoReserves() throws Throwable {
+        // The tracked reserves match the actual bNEO balance after every operation above
+        NeoInvokeFunction result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(cNeo.getScriptHash())));
+        BigInteger bneoBalance = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(bneoBalance, result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Only the owner can reconcile the tracked reserves against the actual balance
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, RECONCILE_BNEO_RESERVES);
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        Hash256 txHash = invoke(cNeo, owner, RECONCILE_BNEO_RESERVES).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("ReconcileBneoReserves", n0.getEventName());
+        List<StackItem> stackItems = n0.getState().getList();
+        assertEquals(bneoBalance, stackItems.get(0).getInteger());
+        assertEquals(bneoBalance, stackItems.get(1).getInteger());
+
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(bneoBalance, result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(24)
+    @Test
+    public void invokeTransferMany() throws Throwable {
+        // All cNEO was burned in invokeMixedBurn, so this mint is at a 1:1 ratio
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("1000000000")), any(null));
+        NeoInvokeFunction result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(new BigInteger("1000000000"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Recipients and amounts must have the same length
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, TRANSFER_MANY, hash160(owner.getScriptHash()),
+                    array(hash160(other.getScriptHash())), array(), any(null));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // Transferring from a wallet that is not owned by the caller doesn't do anything
+        invoke(cNeo, other, TRANSFER_MANY, hash160(owner.getScriptHash()),
+                array(hash160(other.getScriptHash())), array(integer(new BigInteger("100000000"))), any(null));
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(new BigInteger("1000000000"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        Hash256 txHash = invoke(cNeo, owner, TRANSFER_MANY, hash160(owner.getScriptHash()),
+                array(hash160(other.getScriptHash()), hash160(owner.getScriptHash())),
+                array(integer(new BigInteger("300000000")), integer(new BigInteger("100000000"))), any(null)).txHash;
+
+        // Each recipient gets its own Transfer event
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("Transfer", n0.getEventName());
+        List<StackItem> stackItems = n0.getState().getList();
+        assertEquals(owner.getAddress(), stackItems.get(0).getAddress());
+        assertEquals(other.getAddress(), stackItems.get(1).getAddress());
+        assertEquals(new BigInteger("300000000"), stackItems.get(2).getInteger());
+        Notification n1 = execution.getNotifications().get(1);
+        assertEquals("Transfer", n1.getEventName());
+        stackItems = n1.getState().getList();
+        assertEquals(owner.getAddress(), stackItems.get(0).getAddress());
+        assertEquals(owner.getAddress(), stackItems.get(1).getAddress());
+        assertEquals(new BigInteger("100000000"), stackItems.get(2).getInteger());
+
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(new BigInteger("700000000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(new BigInteger("300000000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        assertEquals(new BigInteger("1000000000"), result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(25)
+    @Test
+    public void invokeMintWithPayload() throws Throwable {
+        // Minting fails if fewer than minCneoOut cNEO would be minted
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("100000000")),
+                    array(string("MINT"), hash160(other.getScriptHash()), integer(new BigInteger("100000001"))));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // The reserve ratio is still 1:1 after invokeTransferMany
+        Hash256 txHash = transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")),
+                array(string("MINT"), hash160(other.getScriptHash()), integer(new BigInteger("100000000"))));
+
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n2 = execution.getNotifications().get(2);
+        assertEquals("Mint", n2.getEventName());
+        List<StackItem> stackItems = n2.getState().getList();
+        assertEquals(other.getAddress(), stackItems.get(0).getAddress());
+        assertEquals(new BigInteger("100000000"), stackItems.get(1).getInteger());
+
+        NeoInvokeFunction result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(new BigInteger("700000000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(new BigInteger("400000000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(new BigInteger("1100000000"), result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(26)
+    @Test
+    public void invokeMintWithNeoToVoter() throws Throwable {
+        // Only the owner can route NEO deposits to the voter
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, SET_VOTE_NEO_DEPOSITS, bool(true));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        invoke(cNeo, owner, SET_VOTE_NEO_DEPOSITS, bool(true));
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_VOTE_NEO_DEPOSITS);
+        assertEquals(true, result.getInvocationResult().getStack().get(0).getBoolean());
+
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(bNeo.getScriptHash())));
+        BigInteger bneoNeoBalance = result.getInvocationResult().getStack().get(0).getInteger();
+
+        // 2 NEO == 200000000 bNEO at the 1:1 ratio left by invokeMintWithPayload
+        transfer(neoToken, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("2")), any(null));
+
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(new BigInteger("900000000"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // The NEO went straight to the voter and no bNEO was minted
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(voter.getScriptHash())));
+        assertEquals(new BigInteger("2"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(bNeo.getScriptHash())));
+        assertEquals(bneoNeoBalance, result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(new BigInteger("1100000000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_TOTAL_RESERVES);
+        assertEquals(new BigInteger("1300000000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_RESERVE_RATIO);
+        assertEquals(new BigInteger("1000000000000000000"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        invoke(cNeo, owner, SET_VOTE_NEO_DEPOSITS, bool(false));
+    }
+
+    @Order(27)
+    @Test
+    public void invokePreviewCompound() throws Throwable {
+        // Our fake bNEO reports all of its GAS as our reward
+        transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(bNeo.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        setReserves(owner, 1000000000, 1000000000);
+
+        NeoInvokeFunction result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(bNeo.getScriptHash())));
+        BigInteger bneoGas = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(GET_LAST_COMPOUNDED);
+        BigInteger lastCompounded = result.getInvocationResult().getStack().get(0).getInteger();
+
+        result = cNeo.callInvokeFunction(PREVIEW_COMPOUND);
+        List<StackItem> preview = result.getInvocationResult().getStack().get(0).getList();
+
+        // invokeVote compounded less than a compound period ago
+        BigInteger timeUntilCompound = preview.get(0).getInteger();
+        assertTrue(timeUntilCompound.compareTo(BigInteger.ZERO) > 0);
+        assertTrue(timeUntilCompound.compareTo(new BigInteger("3600000")) <= 0);
+
+        // The voter holds the NEO from invokeMintWithNeoToVoter, so it adds some unclaimed GAS
+        BigInteger claimableGas = preview.get(1).getInteger();
+        assertTrue(claimableGas.compareTo(bneoGas) >= 0);
+
+        BigInteger treasuryCut = claimableGas.multiply(new BigInteger("1000")).divide(new BigInteger("10000"));
+        BigInteger gasToSwap = claimableGas.subtract(treasuryCut);
+        assertEquals(treasuryCut, preview.get(2).getInteger());
+        assertEquals(false, preview.get(3).getBoolean());
+        assertEquals(gasToSwap, preview.get(4).getInteger());
+
+        // Same formula as the swap router
+        BigInteger amountInWithFee = gasToSwap.multiply(new BigInteger("997"));
+        BigInteger expectedBneoOut = amountInWithFee.multiply(new BigInteger("1000000000"))
+                .divide(new BigInteger("1000000000000").add(amountInWithFee));
+        assertEquals(expectedBneoOut, preview.get(5).getInteger());
+
+        // A preview changes nothing
+        result = cNeo.callInvokeFunction(GET_LAST_COMPOUNDED);
+        assertEquals(lastCompounded, result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(28)
+    @Test
+    public void invokePreviewMintAndRedeem() throws Throwable {
+        // 1300000000 cNEO backed by 1100000000 bNEO and 2 NEO
+        NeoInvokeFunction result = cNeo.callInvokeFunction(PREVIEW_MINT, List.of(integer(new BigInteger("100000000"))));
+        List<StackItem> quote = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(new BigInteger("100000000"), quote.get(0).getInteger());
+        assertEquals(new BigInteger("0"), quote.get(1).getInteger());
+
+        result = cNeo.callInvokeFunction(PREVIEW_MINT_FROM_NEO, List.of(integer(new BigInteger("3"))));
+        quote = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(new BigInteger("300000000"), quote.get(0).getInteger());
+        assertEquals(new BigInteger("3"), quote.get(1).getInteger());
+
+        // Burning the whole supply returns all reserves and needs the voter NEO
+        result = cNeo.callInvokeFunction(PREVIEW_REDEEM, List.of(integer(new BigInteger("1300000000"))));
+        quote = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(new BigInteger("1300000000"), quote.get(0).getInteger());
+        assertEquals(new BigInteger("2"), quote.get(1).getInteger());
+
+        // Otherwise the exit fee applies
+        result = cNeo.callInvokeFunction(PREVIEW_REDEEM, List.of(integer(new BigInteger("100000000"))));
+        quote = result.getInvocationResult().getStack().get(0).getList();
+        BigInteger previewBneo = quote.get(0).getInteger();
+        assertEquals(new BigInteger("99500000"), previewBneo);
+        assertEquals(new BigInteger("0"), quote.get(1).getInteger());
+
+        // The real burn pays out exactly the quote
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        BigInteger beforeBneo = result.getInvocationResult().getStack().get(0).getInteger();
+        transfer(cNeo, other, hash160(other.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(beforeBneo.add(previewBneo), result.getInvocationResult().getStack().get(0).getInteger());
+
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(new BigInteger("1000500000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        assertEquals(new BigInteger("1200000000"), result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(29)
+    @Test
+    public void invokeVoterRegistry() throws Throwable {
+        // The primary voter was registered by setVoterScriptHash
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_VOTER_SCRIPT_HASHES);
+        List<StackItem> voters = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(1, voters.size());
+        assertEquals(voter.getScriptHash().toAddress(), voters.get(0).getAddress());
+
+        // Only the owner can change the registry
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, ADD_VOTER, hash160(bNeo.getScriptHash()));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        // Voters must be contracts and can only be registered once
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, ADD_VOTER, hash160(other.getScriptHash()));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, ADD_VOTER, hash160(voter.getScriptHash()));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // The primary voter cannot be removed
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, REMOVE_VOTER, hash160(voter.getScriptHash()));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // NEO sent straight to a voter is only counted once reconciled
+        result = cNeo.callInvokeFunction(GET_VOTER_NEO_RESERVES, List.of(hash160(voter.getScriptHash())));
+        assertEquals(new BigInteger("2"), result.getInvocationResult().getStack().get(0).getInteger());
+        transfer(neoToken, owner, hash160(owner.getScriptHash()), hash160(voter.getScriptHash()),
+                integer(new BigInteger("1")), any(null));
+        result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(new BigInteger("2"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Only the owner can reconcile
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, RECONCILE_NEO_RESERVES);
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        Hash256 txHash = invoke(cNeo, owner, RECONCILE_NEO_RESERVES).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("ReconcileNeoReserves", n0.getEventName());
+        List<StackItem> stackItems = n0.getState().getList();
+        assertEquals(new BigInteger("2"), stackItems.get(0).getInteger());
+        assertEquals(new BigInteger("3"), stackItems.get(1).getInteger());
+
+        result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(new BigInteger("3"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_VOTER_NEO_RESERVES, List.of(hash160(voter.getScriptHash())));
+        assertEquals(new BigInteger("3"), result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(30)
+    @Test
+    public void invokeClaimThreshold() throws Throwable {
+        NeoInvokeFunction result = voter.callInvokeFunction(GET_CLAIM_THRESHOLD);
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Only the owner can set the claim threshold
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(voter, other, SET_CLAIM_THRESHOLD, integer(new BigInteger("100000000")));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(voter, owner, SET_CLAIM_THRESHOLD, integer(new BigInteger("-1")));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        Hash256 txHash = invoke(voter, owner, SET_CLAIM_THRESHOLD, integer(new BigInteger("100000000"))).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("SetClaimThreshold", n0.getEventName());
+        assertEquals(new BigInteger("100000000"), n0.getState().getList().get(0).getInteger());
+
+        result = voter.callInvokeFunction(GET_CLAIM_THRESHOLD);
+        assertEquals(new BigInteger("100000000"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // The preview leaves out a voter below its threshold, so only the bNEO reward is claimable
+        invoke(voter, owner, SET_CLAIM_THRESHOLD, integer(new BigInteger("1000000000000000")));
+        result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(bNeo.getScriptHash())));
+        BigInteger bneoGas = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(PREVIEW_COMPOUND);
+        assertEquals(bneoGas, result.getInvocationResult().getStack().get(0).getList().get(1).getInteger());
+
+        invoke(voter, owner, SET_CLAIM_THRESHOLD, integer(new BigInteger("0")));
+        result = cNeo.callInvokeFunction(PREVIEW_COMPOUND);
+        assertTrue(result.getInvocationResult().getStack().get(0).getList().get(1).getInteger().compareTo(bneoGas) >= 0);
+    }
+
+    @Order(31)
+    @Test
+    public void invokeSwapRoutes() throws Throwable {
+        ContractParameter route = array(hash160(gasToken.getScriptHash()), hash160(neoToken.getScriptHash()),
+                hash160(bNeo.getScriptHash()));
+
+        // Only the owner can whitelist routes
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, ADD_SWAP_ROUTE, route);
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        // Routes must be multi-hop and go from GAS to bNEO
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, ADD_SWAP_ROUTE, array(hash160(gasToken.getScriptHash()), hash160(bNeo.getScriptHash())));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, ADD_SWAP_ROUTE, array(hash160(neoToken.getScriptHash()), hash160(gasToken.getScriptHash()),
+                    hash160(bNeo.getScriptHash())));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        Hash256 txHash = invoke(cNeo, owner, ADD_SWAP_ROUTE, route).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("AddSwapRoute", n0.getEventName());
+        assertEquals(new BigInteger("1"), n0.getState().getList().get(0).getInteger());
+
+        // The same path cannot be whitelisted twice
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, ADD_SWAP_ROUTE, route);
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_SWAP_ROUTES);
+        List<StackItem> routes = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(1, routes.size());
+        List<StackItem> swapRoute = routes.get(0).getList();
+        assertEquals(new BigInteger("1"), swapRoute.get(0).getInteger());
+        assertEquals(3, swapRoute.get(1).getList().size());
+        assertEquals(neoToken.getScriptHash().toAddress(), swapRoute.get(1).getList().get(1).getAddress());
+        // Our mock factory resolves every pair to itself
+        assertEquals(swapRouter.getScriptHash().toAddress(), swapRoute.get(2).getAddress());
+        assertEquals(swapRouter.getScriptHash().toAddress(), swapRoute.get(3).getAddress());
+
+        // With equal reserves on every hop, the two-hop route pays the swap fee twice so the direct pair wins
+        result = cNeo.callInvokeFunction(PREVIEW_COMPOUND);
+        List<StackItem> preview = result.getInvocationResult().getStack().get(0).getList();
+        BigInteger gasToSwap = preview.get(4).getInteger();
+        BigInteger amountInWithFee = gasToSwap.multiply(new BigInteger("997"));
+        BigInteger directBneoOut = amountInWithFee.multiply(new BigInteger("1000000000"))
+                .divide(new BigInteger("1000000000000").add(amountInWithFee));
+        assertEquals(directBneoOut, preview.get(5).getInteger());
+
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, REMOVE_SWAP_ROUTE, integer(new BigInteger("2")));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        invoke(cNeo, owner, REMOVE_SWAP_ROUTE, integer(new BigInteger("1")));
+        result = cNeo.callInvokeFunction(GET_SWAP_ROUTES);
+        assertEquals(0, result.getInvocationResult().getStack().get(0).getList().size());
+    }
+
+    @Order(32)
+    @Test
+    public void invokeSwapPendingGas() throws Throwable {
+        // Nothing is pending after invokeVote
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, SWAP_PENDING_GAS, hash160(other.getScriptHash()));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // Only the owner can size tranches, and never above the pool reserve
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, SET_MAX_TRANCHE_BASIS_POINTS, integer(new BigInteger("300")));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, SET_MAX_TRANCHE_BASIS_POINTS, integer(new BigInteger("10001")));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // Tranches are 30% of the 10 GAS in the pool == 3 GAS
+        Hash256 txHash = invoke(cNeo, owner, SET_MAX_TRANCHE_BASIS_POINTS, integer(new BigInteger("3000"))).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("SetMaxTrancheBasisPoints", n0.getEventName());
+        assertEquals(new BigInteger("3000"), n0.getState().getList().get(0).getInteger());
+        setReserves(owner, 1000000000, 0);
+
+        transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(bNeo.getScriptHash()),
+                integer(new BigInteger("1000000000")), any(null));
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        ext.fastForward(3600, 100);
+
+        txHash = compound(other).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        List<Notification> notifications = execution.getNotifications();
+        Notification compoundEvent = notifications.get(notifications.size() - 1);
+        assertEquals("Compound", compoundEvent.getEventName());
+        List<StackItem> stackItems = compoundEvent.getState().getList();
+        BigInteger gasQuantity = stackItems.get(1).getInteger();
+        BigInteger treasuryCut = stackItems.get(3).getInteger();
+        assertEquals(new BigInteger("100000000"), stackItems.get(2).getInteger());
+
+        BigInteger pendingSwapGas = gasQuantity.subtract(treasuryCut).subtract(new BigInteger("300000000"));
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_PENDING_SWAP_GAS);
+        assertEquals(pendingSwapGas, result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Pending GAS belongs to holders, not to the treasury
+        result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(cNeo.getScriptHash())));
+        BigInteger gasBalance = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(GET_GAS_RESERVES);
+        assertEquals(gasBalance.subtract(pendingSwapGas), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Anyone can swap the next tranche
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        txHash = invoke(cNeo, other, SWAP_PENDING_GAS, hash160(other.getScriptHash())).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n2 = execution.getNotifications().get(2);
+        assertEquals("SwapPendingGas", n2.getEventName());
+        stackItems = n2.getState().getList();
+        assertEquals(other.getAddress(), stackItems.get(0).getAddress());
+        assertEquals(new BigInteger("300000000"), stackItems.get(1).getInteger());
+        assertEquals(new BigInteger("100000000"), stackItems.get(2).getInteger());
+
+        pendingSwapGas = pendingSwapGas.subtract(new BigInteger("300000000"));
+        result = cNeo.callInvokeFunction(GET_PENDING_SWAP_GAS);
+        assertEquals(pendingSwapGas, result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Without a pool-depth cap, a single tranche drains the rest
+        invoke(cNeo, owner, SET_MAX_TRANCHE_BASIS_POINTS, integer(new BigInteger("0")));
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        invoke(cNeo, other, SWAP_PENDING_GAS, hash160(other.getScriptHash()));
+        result = cNeo.callInvokeFunction(GET_PENDING_SWAP_GAS);
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
+        setReserves(owner, 1000000000, 1000000000);
+    }
+
+    @Order(33)
+    @Test
+    public void invokeCompoundPeriodController() throws Throwable {
+        // Only the owner can configure the controller, and its bounds must be ordered
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, SET_COMPOUND_PERIOD_CONTROLLER, integer(1), integer(1000), integer(7200000));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, SET_COMPOUND_PERIOD_CONTROLLER, integer(1), integer(7200000), integer(1000));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // A target of 0.00000001 GAS is always exceeded, so the period takes its largest step down and halves
+        Hash256 txHash = invoke(cNeo, owner, SET_COMPOUND_PERIOD_CONTROLLER, integer(1), integer(1000),
+                integer(7200000)).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("SetCompoundPeriodController", n0.getEventName());
+        List<StackItem> stackItems = n0.getState().getList();
+        assertEquals(new BigInteger("1"), stackItems.get(0).getInteger());
+        assertEquals(new BigInteger("1000"), stackItems.get(1).getInteger());
+        assertEquals(new BigInteger("7200000"), stackItems.get(2).getInteger());
+
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_TARGET_SWAP_GAS);
+        assertEquals(new BigInteger("1"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(bNeo.getScriptHash()),
+                integer(new BigInteger("1000000000")), any(null));
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("1000000000")), any(null));
+        ext.fastForward(3600, 100);
+
+        txHash = compound(other).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        BigInteger firedPeriod = null;
+        for (Notification notification : execution.getNotifications()) {
+            if ("SetCompoundPeriod".equals(notification.getEventName())) {
+                firedPeriod = notification.getState().getList().get(0).getInteger();
+            }
+        }
+        assertEquals(new BigInteger("1800000"), firedPeriod);
+
+        result = cNeo.callInvokeFunction(GET_COMPOUND_PERIOD);
+        assertEquals(new BigInteger("1800000"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        invoke(cNeo, owner, SET_COMPOUND_PERIOD_CONTROLLER, integer(0), integer(1000), integer(7200000));
+        setCompoundPeriod(owner, new BigInteger("3600000"));
+    }
+
+    @Order(34)
+    @Test
+    public void invokeTwapSlippageBound() throws Throwable {
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, SET_TWAP_WINDOW, integer(3600000));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, SET_TWAP_WINDOW, integer(-1));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // Keepers observe the pool, at most once per observation period
+        Hash256 txHash = invoke(cNeo, other, OBSERVE_POOL).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("ObservePool", n0.getEventName());
+        assertEquals(new BigInteger("1000000000"), n0.getState().getList().get(0).getInteger());
+        assertEquals(new BigInteger("1000000000"), n0.getState().getList().get(1).getInteger());
+        txHash = invoke(cNeo, other, OBSERVE_POOL).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        assertEquals(0, execution.getNotifications().size());
+
+        txHash = invoke(cNeo, owner, SET_TWAP_WINDOW, integer(3600000)).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        n0 = execution.getNotifications().get(0);
+        assertEquals("SetTwapWindow", n0.getEventName());
+        assertEquals(new BigInteger("3600000"), n0.getState().getList().get(0).getInteger());
+
+        // The pool sits at 1:1 for a long time, then gets drained of bNEO right before compounding
+        ext.fastForward(36000, 100);
+        invoke(cNeo, other, OBSERVE_POOL);
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_POOL_OBSERVATIONS);
+        List<StackItem> observations = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(2, observations.size());
+        List<StackItem> newest = observations.get(1).getList();
+        assertTrue(newest.get(0).getInteger().compareTo(observations.get(0).getList().get(0).getInteger()) > 0);
+        assertEquals(new BigInteger("1000000000"), newest.get(1).getInteger());
+        assertEquals(new BigInteger("1000000000"), newest.get(2).getInteger());
+
+        transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(bNeo.getScriptHash()),
+                integer(new BigInteger("1000000000")), any(null));
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("10000000")), any(null));
+        setReserves(owner, 1000000000, 1);
+        result = cNeo.callInvokeFunction(GET_PENDING_SWAP_GAS);
+        BigInteger pendingGas = result.getInvocationResult().getStack().get(0).getInteger();
+
+        // The spot quote would accept almost nothing, so the time-weighted bound leaves the GAS pending
+        // and the compound still goes through
+        txHash = compound(other).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        List<Notification> notifications = execution.getNotifications();
+        boolean swapSkipped = false;
+        for (Notification notification : notifications) {
+            swapSkipped = swapSkipped || "SkipSwap".equals(notification.getEventName());
+        }
+        assertTrue(swapSkipped);
+        Notification compoundEvent = notifications.get(notifications.size() - 1);
+        assertEquals("Compound", compoundEvent.getEventName());
+        assertEquals(new BigInteger("0"), compoundEvent.getState().getList().get(2).getInteger());
+        result = cNeo.callInvokeFunction(GET_PENDING_SWAP_GAS);
+        assertTrue(result.getInvocationResult().getStack().get(0).getInteger().compareTo(pendingGas) >= 0);
+
+        // Bounding by spot reserves lets the same swap through
+        invoke(cNeo, owner, SET_TWAP_WINDOW, integer(0));
+        txHash = invoke(cNeo, other, SWAP_PENDING_GAS, hash160(other.getScriptHash())).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        notifications = execution.getNotifications();
+        Notification swapEvent = notifications.get(notifications.size() - 1);
+        assertEquals("SwapPendingGas", swapEvent.getEventName());
+        assertEquals(new BigInteger("10000000"), swapEvent.getState().getList().get(2).getInteger());
+
+        setReserves(owner, 1000000000, 1000000000);
+    }
+
+    @Order(35)
+    @Test
+    public void invokeZap() throws Throwable {
+        // Only GAS can be zapped
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("100000000")),
+                    array(string("ZAP"), hash160(other.getScriptHash()), integer(new BigInteger("0"))));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        // Our fake swap router pays out all of its bNEO
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        NeoInvokeFunction result = cNeo.callInvokeFunction(PREVIEW_MINT, List.of(integer(new BigInteger("100000000"))));
+        BigInteger expectedCneo = result.getInvocationResult().getStack().get(0).getList().get(0).getInteger();
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        BigInteger beforeCneo = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        BigInteger beforeBneo = result.getInvocationResult().getStack().get(0).getInteger();
+
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("100000000")),
+                    array(string("ZAP"), hash160(other.getScriptHash()), integer(expectedCneo.add(BigInteger.ONE))));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // 1 GAS is swapped for 1 bNEO, minted at the ratio from before the swap
+        Hash256 txHash = transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")),
+                array(string("ZAP"), hash160(other.getScriptHash()), integer(expectedCneo)));
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        List<Notification> notifications = execution.getNotifications();
+        Notification mintEvent = notifications.get(notifications.size() - 1);
+        assertEquals("Mint", mintEvent.getEventName());
+        List<StackItem> stackItems = mintEvent.getState().getList();
+        assertEquals(other.getAddress(), stackItems.get(0).getAddress());
+        assertEquals(expectedCneo, stackItems.get(1).getInteger());
+
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(beforeCneo.add(expectedCneo), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(beforeBneo.add(new BigInteger("100000000")), result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(36)
+    @Test
+    public void invokeRedeemNeo() throws Throwable {
+        // Only cNEO can be redeemed for NEO
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("100000000")),
+                    array(string("REDEEM_NEO"), hash160(owner.getScriptHash()), integer(new BigInteger("0"))));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(new BigInteger("3"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // 1.2 cNEO is worth a little over 1 NEO, which the voter holds
+        result = cNeo.callInvokeFunction(PREVIEW_REDEEM, List.of(integer(new BigInteger("120000000"))));
+        BigInteger[] neoAndBneo = result.getInvocationResult().getStack().get(0).getList().get(0).getInteger()
+                .divideAndRemainder(new BigInteger("100000000"));
+        assertEquals(new BigInteger("1"), neoAndBneo[0]);
+
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            transfer(cNeo, other, hash160(other.getScriptHash()), hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("120000000")),
+                    array(string("REDEEM_NEO"), hash160(other.getScriptHash()), integer(new BigInteger("2"))));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        BigInteger beforeNeo = result.getInvocationResult().getStack().get(0).getInteger();
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        BigInteger beforeBneo = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        BigInteger bneoReserves = result.getInvocationResult().getStack().get(0).getInteger();
+
+        transfer(cNeo, other, hash160(other.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("120000000")),
+                array(string("REDEEM_NEO"), hash160(other.getScriptHash()), integer(new BigInteger("1"))));
+
+        // The NEO came straight from the voter and only the remainder was paid in bNEO
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(beforeNeo.add(neoAndBneo[0]), result.getInvocationResult().getStack().get(0).getInteger());
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(beforeBneo.add(neoAndBneo[1]), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(new BigInteger("2"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        bneoReserves = bneoReserves.subtract(neoAndBneo[1]);
+        assertEquals(bneoReserves, result.getInvocationResult().getStack().get(0).getInteger());
+
+        // 5 cNEO needs more NEO than the voter holds, so the rest is converted from bNEO reserves first
+        result = cNeo.callInvokeFunction(PREVIEW_REDEEM, List.of(integer(new BigInteger("500000000"))));
+        neoAndBneo = result.getInvocationResult().getStack().get(0).getList().get(0).getInteger()
+                .divideAndRemainder(new BigInteger("100000000"));
+        assertTrue(neoAndBneo[0].compareTo(new BigInteger("2")) > 0);
+        BigInteger neoToConvert = neoAndBneo[0].subtract(new BigInteger("2"));
+
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        beforeNeo = result.getInvocationResult().getStack().get(0).getInteger();
+        transfer(cNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("500000000")),
+                array(string("REDEEM_NEO"), hash160(owner.getScriptHash()), integer(neoAndBneo[0])));
+
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(beforeNeo.add(neoAndBneo[0]), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(voter.getScriptHash())));
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        bneoReserves = bneoReserves.subtract(neoToConvert.multiply(new BigInteger("100000000"))).subtract(neoAndBneo[1]);
+        assertEquals(bneoReserves, result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(37)
+    @Test
+    public void invokeRebalance() throws Throwable {
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, SET_BUFFER_BASIS_POINTS, integer(5000), integer(1000));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, SET_BUFFER_BASIS_POINTS, integer(10001), integer(1000));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // invokeRedeemNeo left every reserve in bNEO
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_TOTAL_RESERVES);
+        BigInteger totalReserves = result.getInvocationResult().getStack().get(0).getInteger();
+
+        // Aim for half of the reserves in bNEO, so the other half is converted to NEO
+        Hash256 txHash = invoke(cNeo, owner, SET_BUFFER_BASIS_POINTS, integer(5000), integer(1000)).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification n0 = execution.getNotifications().get(0);
+        assertEquals("SetBufferBasisPoints", n0.getEventName());
+        assertEquals(new BigInteger("5000"), n0.getState().getList().get(0).getInteger());
+        assertEquals(new BigInteger("1000"), n0.getState().getList().get(1).getInteger());
+
+        BigInteger neoQuantity = totalReserves.subtract(totalReserves.divide(new BigInteger("2")))
+                .divide(new BigInteger("100000000"));
+        txHash = invoke(cNeo, other, REBALANCE).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        List<Notification> notifications = execution.getNotifications();
+        Notification rebalanceEvent = notifications.get(notifications.size() - 1);
+        assertEquals("Rebalance", rebalanceEvent.getEventName());
+        assertEquals(new BigInteger("0"), rebalanceEvent.getState().getList().get(0).getInteger());
+        assertEquals(neoQuantity, rebalanceEvent.getState().getList().get(1).getInteger());
+
+        result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(neoQuantity, result.getInvocationResult().getStack().get(0).getInteger());
+        result = neoToken.callInvokeFunction(BALANCE_OF, List.of(hash160(voter.getScriptHash())));
+        assertEquals(neoQuantity, result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_TOTAL_RESERVES);
+        assertEquals(totalReserves, result.getInvocationResult().getStack().get(0).getInteger());
+
+        // Within the tolerance nothing moves
+        txHash = invoke(cNeo, other, REBALANCE).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        assertEquals(0, execution.getNotifications().size());
+
+        // Raising the target pulls the NEO back out of the voter
+        invoke(cNeo, owner, SET_BUFFER_BASIS_POINTS, integer(10000), integer(0));
+        invoke(cNeo, other, REBALANCE);
+        result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(totalReserves, result.getInvocationResult().getStack().get(0).getInteger());
+
+        invoke(cNeo, owner, SET_BUFFER_BASIS_POINTS, integer(0), integer(0));
+    }
+
+    @Order(38)
+    @Test
+    public void invokeWithdrawalQueue() throws Throwable {
+        // Only cNEO can be queued
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("100000000")),
+                    array(string("QUEUE"), hash160(owner.getScriptHash()), integer(new BigInteger("0"))));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        // The queue is empty
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, PROCESS_WITHDRAWALS, integer(1));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        NeoInvokeFunction result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        BigInteger supply = result.getInvocationResult().getStack().get(0).getInteger();
+
+        Hash256 txHash = transfer(cNeo, other, hash160(other.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")),
+                array(string("QUEUE"), hash160(other.getScriptHash()), integer(new BigInteger("0"))));
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        List<Notification> notifications = execution.getNotifications();
+        Notification queueEvent = notifications.get(notifications.size() - 1);
+        assertEquals("QueueWithdrawal", queueEvent.getEventName());
+        List<StackItem> stackItems = queueEvent.getState().getList();
+        assertEquals(new BigInteger("0"), stackItems.get(0).getInteger());
+        assertEquals(other.getAddress(), stackItems.get(1).getAddress());
+        assertEquals(new BigInteger("100000000"), stackItems.get(2).getInteger());
+
+        transfer(cNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("200000000")),
+                array(string("QUEUE"), hash160(owner.getScriptHash()), integer(new BigInteger("0"))));
+
+        // Queued cNEO is escrowed, not burned
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        assertEquals(supply, result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_PENDING_WITHDRAWALS, List.of(integer(10)));
+        List<StackItem> tickets = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(2, tickets.size());
+        assertEquals(new BigInteger("1"), tickets.get(1).getList().get(0).getInteger());
+        assertEquals(owner.getAddress(), tickets.get(1).getList().get(1).getAddress());
+        assertEquals(new BigInteger("200000000"), tickets.get(1).getList().get(2).getInteger());
+
+        // Tickets are filled oldest first at the ratio a burn would get
+        result = cNeo.callInvokeFunction(PREVIEW_REDEEM, List.of(integer(new BigInteger("100000000"))));
+        BigInteger previewBneo = result.getInvocationResult().getStack().get(0).getList().get(0).getInteger();
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        BigInteger beforeBneo = result.getInvocationResult().getStack().get(0).getInteger();
+
+        txHash = invoke(cNeo, other, PROCESS_WITHDRAWALS, integer(1)).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        notifications = execution.getNotifications();
+        Notification fillEvent = notifications.get(notifications.size() - 1);
+        assertEquals("FillWithdrawal", fillEvent.getEventName());
+        stackItems = fillEvent.getState().getList();
+        assertEquals(new BigInteger("0"), stackItems.get(0).getInteger());
+        assertEquals(other.getAddress(), stackItems.get(1).getAddress());
+        assertEquals(previewBneo, stackItems.get(2).getInteger());
+
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(beforeBneo.add(previewBneo), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        assertEquals(supply.subtract(new BigInteger("100000000")), result.getInvocationResult().getStack().get(0).getInteger());
+
+        result = cNeo.callInvokeFunction(PREVIEW_REDEEM, List.of(integer(new BigInteger("200000000"))));
+        previewBneo = result.getInvocationResult().getStack().get(0).getList().get(0).getInteger();
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        beforeBneo = result.getInvocationResult().getStack().get(0).getInteger();
+
+        invoke(cNeo, other, PROCESS_WITHDRAWALS, integer(10));
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(beforeBneo.add(previewBneo), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        assertEquals(supply.subtract(new BigInteger("300000000")), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_PENDING_WITHDRAWALS, List.of(integer(10)));
+        assertEquals(0, result.getInvocationResult().getStack().get(0).getList().size());
+    }
+
+    @Order(39)
+    @Test
+    public void invokeGetStats() throws Throwable {
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_STATS);
+        List<StackItem> stats = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(7, stats.size());
+        BigInteger totalMinted = stats.get(0).getInteger();
+        BigInteger totalBurned = stats.get(1).getInteger();
+        BigInteger exitFeesRetained = stats.get(5).getInteger();
+        BigInteger compoundCount = stats.get(6).getInteger();
+
+        // Earlier tests have compounded and swapped GAS for bNEO
+        assertTrue(stats.get(2).getInteger().signum() > 0);
+        assertTrue(stats.get(3).getInteger().signum() > 0);
+        assertTrue(stats.get(4).getInteger().signum() > 0);
+        assertTrue(compoundCount.signum() > 0);
+
+        // Minting adds to totalMinted
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        BigInteger supply = result.getInvocationResult().getStack().get(0).getInteger();
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        BigInteger minted = result.getInvocationResult().getStack().get(0).getInteger().subtract(supply);
+
+        result = cNeo.callInvokeFunction(GET_STATS);
+        stats = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(totalMinted.add(minted), stats.get(0).getInteger());
+        assertEquals(totalBurned, stats.get(1).getInteger());
+        assertEquals(compoundCount, stats.get(6).getInteger());
+
+        // Burning adds to totalBurned and keeps the exit fee in exitFeesRetained
+        result = cNeo.callInvokeFunction(GET_RESERVE_RATIO);
+        BigInteger ratio = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(PREVIEW_REDEEM, List.of(integer(new BigInteger("100000000"))));
+        BigInteger bneoOut = result.getInvocationResult().getStack().get(0).getList().get(0).getInteger();
+        BigInteger exitFee = ratio.multiply(new BigInteger("100000000"))
+                .divide(new BigInteger("1000000000000000000")).subtract(bneoOut);
+        transfer(cNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+
+        result = cNeo.callInvokeFunction(GET_STATS);
+        stats = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(totalMinted.add(minted), stats.get(0).getInteger());
+        assertEquals(totalBurned.add(new BigInteger("100000000")), stats.get(1).getInteger());
+        assertEquals(exitFeesRetained.add(exitFee), stats.get(5).getInteger());
+        assertEquals(compoundCount, stats.get(6).getInteger());
+    }
+
+    @Order(40)
+    @Test
+    public void invokeRatioHistory() throws Throwable {
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, GET_RATIO_HISTORY, integer(0), integer(0));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, GET_RATIO_HISTORY, integer(0), integer(501));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // Every compound in the tests above left a snapshot, oldest first
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_RATIO_HISTORY_COUNT);
+        int count = result.getInvocationResult().getStack().get(0).getInteger().intValue();
+        assertTrue(count > 1);
+        result = cNeo.callInvokeFunction(GET_RATIO_HISTORY, List.of(integer(0), integer(500)));
+        List<StackItem> snapshots = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(count, snapshots.size());
+        List<StackItem> oldest = snapshots.get(0).getList();
+        List<StackItem> previous = snapshots.get(count - 2).getList();
+        List<StackItem> newest = snapshots.get(count - 1).getList();
+        assertTrue(newest.get(0).getInteger().compareTo(previous.get(0).getInteger()) > 0);
+        assertTrue(newest.get(1).getInteger().compareTo(new BigInteger("1000000000000000000")) >= 0);
+        assertTrue(newest.get(2).getInteger().signum() > 0);
+
+        result = cNeo.callInvokeFunction(GET_RATIO_HISTORY, List.of(integer(count - 1), integer(10)));
+        snapshots = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(1, snapshots.size());
+        assertEquals(newest.get(0).getInteger(), snapshots.get(0).getList().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_RATIO_HISTORY, List.of(integer(count), integer(10)));
+        assertEquals(0, result.getInvocationResult().getStack().get(0).getList().size());
+
+        // A lookup returns the newest snapshot taken at or before the timestamp
+        result = cNeo.callInvokeFunction(GET_RATIO_AT, List.of(integer(newest.get(0).getInteger())));
+        assertEquals(newest.get(0).getInteger(), result.getInvocationResult().getStack().get(0).getList().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_RATIO_AT, List.of(integer(newest.get(0).getInteger().subtract(BigInteger.ONE))));
+        assertEquals(previous.get(0).getInteger(), result.getInvocationResult().getStack().get(0).getList().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_RATIO_AT, List.of(integer(oldest.get(0).getInteger().subtract(BigInteger.ONE))));
+        assertNull(result.getInvocationResult().getStack().get(0).getValue());
+    }
+
+    @Order(41)
+    @Test
+    public void invokeGetHolders() throws Throwable {
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, GET_HOLDERS, any(null), integer(0));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, GET_HOLDERS, any(null), integer(501));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // A single page holds every holder at its balance
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_HOLDERS, List.of(any(null), integer(500)));
+        List<StackItem> page = result.getInvocationResult().getStack().get(0).getList();
+        List<StackItem> holders = page.get(0).getList();
+        assertNull(page.get(1).getValue());
+        assertTrue(holders.size() > 1);
+        BigInteger total = BigInteger.ZERO;
+        for (StackItem holder : holders) {
+            Hash160 account = Hash160.fromAddress(holder.getList().get(0).getAddress());
+            BigInteger balance = holder.getList().get(1).getInteger();
+            result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(account)));
+            assertEquals(balance, result.getInvocationResult().getStack().get(0).getInteger());
+            total = total.add(balance);
+        }
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        assertEquals(result.getInvocationResult().getStack().get(0).getInteger(), total);
+
+        // Paging one holder at a time walks the same holders in the same order
+        StackItem nextKey = null;
+        for (StackItem holder : holders) {
+            result = cNeo.callInvokeFunction(GET_HOLDERS, List.of(
+                    nextKey == null ? any(null) : hash160(Hash160.fromAddress(nextKey.getAddress())), integer(1)));
+            page = result.getInvocationResult().getStack().get(0).getList();
+            assertEquals(1, page.get(0).getList().size());
+            assertEquals(holder.getList().get(0).getAddress(), page.get(0).getList().get(0).getList().get(0).getAddress());
+            nextKey = page.get(1).getValue() == null ? null : page.get(1);
+        }
+    }
+
+    @Order(42)
+    @Test
+    public void invokeBalanceOfBatch() throws Throwable {
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, BALANCE_OF_BATCH, array(hash160(owner.getScriptHash()), hash160(Hash160.ZERO)));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+        ContractParameter[] tooMany = new ContractParameter[501];
+        Arrays.fill(tooMany, hash160(owner.getScriptHash()));
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, BALANCE_OF_BATCH, array((Object[]) tooMany));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        NeoInvokeFunction result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        BigInteger ownerBalance = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        BigInteger otherBalance = result.getInvocationResult().getStack().get(0).getInteger();
+
+        result = cNeo.callInvokeFunction(BALANCE_OF_BATCH, List.of(array(hash160(other.getScriptHash()),
+                hash160(owner.getScriptHash()), hash160(bNeo.getScriptHash()))));
+        List<StackItem> balances = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(3, balances.size());
+        assertEquals(otherBalance, balances.get(0).getInteger());
+        assertEquals(ownerBalance, balances.get(1).getInteger());
+        assertEquals(new BigInteger("0"), balances.get(2).getInteger());
+
+        result = cNeo.callInvokeFunction(BALANCE_OF_BATCH, List.of(array()));
+        assertEquals(0, result.getInvocationResult().getStack().get(0).getList().size());
+    }
+
+    @Order(43)
+    @Test
+    public void invokeGetState() throws Throwable {
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_STATE);
+        List<StackItem> state = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(10, state.size());
+
+        // Every field matches its single-value getter
+        String[] getters = new String[]{TOTAL_SUPPLY, GET_BNEO_RESERVES, GET_NEO_RESERVES, GET_TOTAL_RESERVES,
+                GET_GAS_RESERVES, GET_PENDING_SWAP_GAS, GET_RESERVE_RATIO, GET_LAST_COMPOUNDED, GET_COMPOUND_PERIOD};
+        for (int i = 0; i < getters.length; i++) {
+            result = cNeo.callInvokeFunction(getters[i]);
+            assertEquals(result.getInvocationResult().getStack().get(0).getInteger(), state.get(i).getInteger());
+        }
+        assertEquals(state.get(7).getInteger().add(state.get(8).getInteger()), state.get(9).getInteger());
+        assertEquals(state.get(1).getInteger().add(state.get(2).getInteger().multiply(new BigInteger("100000000"))),
+                state.get(3).getInteger());
+    }
+
+    @Order(44)
+    @Test
+    public void invokeCompoundRewardCappedByReserves() throws Throwable {
+        // Empty the treasury so that only the treasury cut of the next claim can pay the reward
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_GAS_RESERVES);
+        withdrawGas(owner, result.getInvocationResult().getStack().get(0).getInteger());
+        setGasReward(owner, new BigInteger("100000000"));
+
+        transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(bNeo.getScriptHash()),
+                integer(new BigInteger("10000")), any(null));
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("10000000")), any(null));
+        ext.fastForward(3600, 100);
+
+        result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        BigInteger beforeGas = result.getInvocationResult().getStack().get(0).getInteger();
+        InvokeResult invokeResult = compound(other);
+        BigInteger gasFee = BigInteger.valueOf(invokeResult.tx.getNetworkFee() + invokeResult.tx.getSystemFee());
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(invokeResult.txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        List<Notification> notifications = execution.getNotifications();
+        Notification compoundEvent = notifications.get(notifications.size() - 1);
+        assertEquals("Compound", compoundEvent.getEventName());
+        BigInteger treasuryCut = compoundEvent.getState().getList().get(3).getInteger();
+        assertTrue(treasuryCut.compareTo(new BigInteger("100000000")) < 0);
+
+        // The reward is clipped to the treasury cut, leaving the pending swap GAS untouched
+        result = gasToken.callInvokeFunction(BALANCE_OF, List.of(hash160(other.getScriptHash())));
+        assertEquals(beforeGas.add(treasuryCut).subtract(gasFee), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_GAS_RESERVES);
+        assertEquals(new BigInteger("0"), result.getInvocationResult().getStack().get(0).getInteger());
+
+        setGasReward(owner, new BigInteger("10000000"));
+    }
+
+    @Order(45)
+    @Test
+    public void invokeSkewedPoolObservation() throws Throwable {
+        transfer(gasToken, owner, hash160(owner.getScriptHash()), hash160(bNeo.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        transfer(bNeo, owner, hash160(owner.getScriptHash()), hash160(swapRouter.getScriptHash()),
+                integer(new BigInteger("10000000")), any(null));
+        ext.fastForward(3600, 100);
+
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_POOL_OBSERVATIONS);
+        List<StackItem> observations = result.getInvocationResult().getStack().get(0).getList();
+        BigInteger previousTimestamp = observations.get(observations.size() - 1).getList().get(0).getInteger();
+
+        // Drain the pool of bNEO, observe it, and restore the pool, all in one transaction
+        byte[] script = new ScriptBuilder()
+                .contractCall(swapRouter.getScriptHash(), SET_RESERVES, List.of(integer(1000000000), integer(1)))
+                .contractCall(cNeo.getScriptHash(), OBSERVE_POOL, List.of())
+                .contractCall(swapRouter.getScriptHash(), SET_RESERVES, List.of(integer(1000000000), integer(1000000000)))
+                .toArray();
+        invokeScript(other, script);
+
+        // The recorded price stays close to the running average instead of following the skew
+        result = cNeo.callInvokeFunction(GET_POOL_OBSERVATIONS);
+        observations = result.getInvocationResult().getStack().get(0).getList();
+        List<StackItem> newest = observations.get(observations.size() - 1).getList();
+        assertTrue(newest.get(0).getInteger().compareTo(previousTimestamp) > 0);
+        assertEquals(new BigInteger("1000000000"), newest.get(1).getInteger());
+        assertTrue(newest.get(2).getInteger().compareTo(new BigInteger("900000000")) >= 0);
+        assertTrue(newest.get(2).getInteger().compareTo(new BigInteger("1000000000")) <= 0);
+    }
+
+    @Order(46)
+    @Test
+    public void invokeWithdrawalQueueRecovery() throws Throwable {
+        NeoInvokeFunction result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        BigInteger supply = result.getInvocationResult().getStack().get(0).getInteger();
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        BigInteger ownerCneo = result.getInvocationResult().getStack().get(0).getInteger();
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        BigInteger ownerBneo = result.getInvocationResult().getStack().get(0).getInteger();
+
+        // BurgerAgent rejects bNEO sent without data, so paying it directly would abort the batch
+        transfer(cNeo, other, hash160(other.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")),
+                array(string("QUEUE"), hash160(burgerAgent.getScriptHash()), integer(new BigInteger("0"))));
+        // No burn pays this much, so the ticket is skipped
+        transfer(cNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")),
+                array(string("QUEUE"), hash160(owner.getScriptHash()), integer(new BigInteger("1000000000"))));
+        transfer(cNeo, owner, hash160(owner.getScriptHash()), hash160(cNeo.getScriptHash()),
+                integer(new BigInteger("100000000")),
+                array(string("QUEUE"), hash160(owner.getScriptHash()), integer(new BigInteger("0"))));
+
+        Hash256 txHash = invoke(cNeo, other, PROCESS_WITHDRAWALS, integer(10)).txHash;
+        NeoApplicationLog.Execution execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        BigInteger contractBneo = null;
+        BigInteger ownerFillBneo = null;
+        BigInteger skippedId = null;
+        for (Notification notification : execution.getNotifications()) {
+            List<StackItem> stackItems = notification.getState().getList();
+            if ("FillWithdrawal".equals(notification.getEventName())) {
+                if (burgerAgent.getScriptHash().toAddress().equals(stackItems.get(1).getAddress())) {
+                    contractBneo = stackItems.get(2).getInteger();
+                } else {
+                    ownerFillBneo = stackItems.get(2).getInteger();
+                }
+            } else if ("SkipWithdrawal".equals(notification.getEventName())) {
+                skippedId = stackItems.get(0).getInteger();
+            }
+        }
+        assertTrue(contractBneo.signum() > 0);
+        assertTrue(ownerFillBneo.signum() > 0);
+        assertEquals(new BigInteger("3"), skippedId);
+
+        // The ticket behind the contract beneficiary was still filled
+        result = bNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(ownerBneo.add(ownerFillBneo), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_CLAIMABLE_WITHDRAWAL, List.of(hash160(burgerAgent.getScriptHash())));
+        assertEquals(contractBneo, result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(TOTAL_SUPPLY);
+        assertEquals(supply.subtract(new BigInteger("200000000")), result.getInvocationResult().getStack().get(0).getInteger());
+
+        // The skipped ticket is still pending and is retried by the next batch, even with the queue empty
+        result = cNeo.callInvokeFunction(GET_PENDING_WITHDRAWALS, List.of(integer(10)));
+        List<StackItem> tickets = result.getInvocationResult().getStack().get(0).getList();
+        assertEquals(1, tickets.size());
+        assertEquals(new BigInteger("3"), tickets.get(0).getList().get(0).getInteger());
+        txHash = invoke(cNeo, other, PROCESS_WITHDRAWALS, integer(1)).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        Notification skipEvent = execution.getNotifications().get(0);
+        assertEquals("SkipWithdrawal", skipEvent.getEventName());
+        assertEquals(new BigInteger("3"), skipEvent.getState().getList().get(0).getInteger());
+
+        // Only the beneficiary can claim
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, CLAIM_WITHDRAWAL, hash160(burgerAgent.getScriptHash()));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        // Only the ticket owner can cancel the skipped ticket, and it gets its cNEO back
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, CANCEL_WITHDRAWAL, integer(3));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+        txHash = invoke(cNeo, owner, CANCEL_WITHDRAWAL, integer(3)).txHash;
+        execution = neow3j.getApplicationLog(txHash).send()
+                .getApplicationLog().getExecutions().get(0);
+        List<Notification> notifications = execution.getNotifications();
+        Notification cancelEvent = notifications.get(notifications.size() - 1);
+        assertEquals("CancelWithdrawal", cancelEvent.getEventName());
+        assertEquals(owner.getAddress(), cancelEvent.getState().getList().get(1).getAddress());
+        assertEquals(new BigInteger("100000000"), cancelEvent.getState().getList().get(2).getInteger());
+
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(owner.getScriptHash())));
+        assertEquals(ownerCneo.subtract(new BigInteger("100000000")), result.getInvocationResult().getStack().get(0).getInteger());
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, owner, CANCEL_WITHDRAWAL, integer(3));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+
+        // The cancelled ticket is no longer pending and is dropped from the retry list by the next batch
+        result = cNeo.callInvokeFunction(GET_PENDING_WITHDRAWALS, List.of(integer(10)));
+        assertEquals(0, result.getInvocationResult().getStack().get(0).getList().size());
+        invoke(cNeo, other, PROCESS_WITHDRAWALS, integer(1));
+        exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(cNeo, other, PROCESS_WITHDRAWALS, integer(1));
+        });
+        assertEquals(ASSERT_MESSAGE, exception.getMessage());
+    }
+
+    @Order(47)
+    @Test
+    public void invokeReentrantRedeem() throws Throwable {
+        transfer(cNeo, owner, hash160(owner.getScriptHash()), hash160(redeemer.getScriptHash()),
+                integer(new BigInteger("100000000")), any(null));
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        BigInteger bneoReserves = result.getInvocationResult().getStack().get(0).getInteger();
+
+        // The redeemer reconciles from its bNEO payment callback, which aborts the whole redemption
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(redeemer, other, "redeem", hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("100000000")), any(null));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        result = cNeo.callInvokeFunction(BALANCE_OF, List.of(hash160(redeemer.getScriptHash())));
+        assertEquals(new BigInteger("100000000"), result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_BNEO_RESERVES);
+        assertEquals(bneoReserves, result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
+    @Order(48)
+    @Test
+    public void invokeReentrantRedeemNeo() throws Throwable {
+        // Give the voter NEO to pay the redemption straight from
+        transfer(neoToken, owner, hash160(owner.getScriptHash()), hash160(voter.getScriptHash()),
+                integer(new BigInteger("2")), any(null));
+        invoke(cNeo, owner, RECONCILE_NEO_RESERVES);
+        NeoInvokeFunction result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        BigInteger neoReserves = result.getInvocationResult().getStack().get(0).getInteger();
+        assertTrue(neoReserves.compareTo(new BigInteger("2")) >= 0);
+
+        // The redeemer reconciles from its NEO payment callback, which aborts the whole redemption
+        Exception exception = assertThrows(TransactionConfigurationException.class, () -> {
+            invoke(redeemer, other, "redeem", hash160(cNeo.getScriptHash()),
+                    integer(new BigInteger("100000000")),
+                    array(string("REDEEM_NEO"), hash160(redeemer.getScriptHash()), integer(new BigInteger("0"))));
+        });
+        assertEquals(ABORT_MESSAGE, exception.getMessage());
+
+        result = cNeo.callInvokeFunction(GET_NEO_RESERVES);
+        assertEquals(neoReserves, result.getInvocationResult().getStack().get(0).getInteger());
+        result = cNeo.callInvokeFunction(GET_VOTER_NEO_RESERVES, List.of(hash160(voter.getScriptHash())));
+        assertEquals(neoReserves, result.getInvocationResult().getStack().get(0).getInteger());
+    }
+
     private static Hash256 transferFromGenesis(SmartContract token, ContractParameter... params) throws Throwable {
         Account[] accounts = genesis.getSignerAccounts();
         Transaction tx = token.invokeFunction(TRANSFER, params)
@@ -1047,6 +2426,17 @@ public class CompoundingNeoTest {
         return new InvokeResult(tx, txHash);
     }
 
+    private static Hash256 invokeScript(Account caller, byte[] script) throws Throwable {
+        Transaction tx = new TransactionBuilder(neow3j).script(script)
+                .signers(AccountSigner.calledByEntry(caller))
+                .getUnsignedTransaction();
+        Hash256 txHash = tx
+                .addWitness(Witness.create(tx.getHashData(), caller.getECKeyPair()))
+                .send().getSendRawTransaction().getHash();
+        Await.waitUntilTransactionIsExecuted(txHash, neow3j);
+        return txHash;
+    }
+
     private static Hash256 transfer(SmartContract token, Account caller, ContractParameter... params) throws Throwable {
         return invoke(token, caller, TRANSFER, params).txHash;
     }
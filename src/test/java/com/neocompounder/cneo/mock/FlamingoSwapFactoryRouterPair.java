@@ -106,7 +106,14 @@ public class FlamingoSwapFactoryRouterPair {
 
     @Safe
     public static List<Integer> getReserves() {
-        return (List<Integer>) (new StdLib()).deserialize(Storage.get(ctx, RESERVES_KEY));
+        ByteString reserves = Storage.get(ctx, RESERVES_KEY);
+        if (reserves == null) {
+            List<Integer> emptyReserves = new List<Integer>();
+            emptyReserves.add(0);
+            emptyReserves.add(0);
+            return emptyReserves;
+        }
+        return (List<Integer>) (new StdLib()).deserialize(reserves);
     }
 
     public static int getAmountOut(int amountIn, int reserveIn, int reserveOut) {
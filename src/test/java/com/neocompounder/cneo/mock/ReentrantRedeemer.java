@@ -0,0 +1,66 @@
+package com.neocompounder.cneo.mock;
+
+import io.neow3j.devpack.ByteString;
+import io.neow3j.devpack.Contract;
+import io.neow3j.devpack.Hash160;
+import io.neow3j.devpack.Runtime;
+import io.neow3j.devpack.Storage;
+import io.neow3j.devpack.StorageContext;
+import io.neow3j.devpack.annotations.DisplayName;
+import io.neow3j.devpack.annotations.OnDeployment;
+import io.neow3j.devpack.annotations.OnNEP17Payment;
+import io.neow3j.devpack.annotations.Permission;
+import io.neow3j.devpack.annotations.Safe;
+import io.neow3j.devpack.constants.CallFlags;
+import io.neow3j.devpack.contracts.FungibleToken;
+import io.neow3j.devpack.contracts.NeoToken;
+
+// Redeems cNEO and tries to reconcile the cNEO reserves while the redemption is paying it out
+@DisplayName("ReentrantRedeemer")
+@Permission(contract = "*", methods = "*")
+public class ReentrantRedeemer {
+
+    private static StorageContext ctx = Storage.getStorageContext();
+
+    // Keys
+    private static byte[] OWNER_KEY = new byte[]{0x00};
+    private static byte[] CNEO_KEY = new byte[]{0x01};
+
+    // Lifecycle Methods
+    @OnDeployment
+    public static void deploy(Object data, boolean update) {
+        if (!update) {
+            final Hash160 owner = (Hash160) data;
+
+            Storage.put(ctx, OWNER_KEY, owner);
+        }
+    }
+
+    @Safe
+    public static Hash160 getOwner() {
+        return Storage.getHash160(ctx, OWNER_KEY);
+    }
+
+    // Contract Methods
+    public static boolean redeem(Hash160 cneoHash, int amount, Object data) {
+        Storage.put(ctx, CNEO_KEY, cneoHash);
+        FungibleToken cneoContract = new FungibleToken(cneoHash);
+        return cneoContract.transfer(Runtime.getExecutingScriptHash(), cneoHash, amount, data);
+    }
+
+    @OnNEP17Payment
+    public static void onPayment(Hash160 from, int amount, Object data) {
+        ByteString cneoHash = Storage.get(ctx, CNEO_KEY);
+        Hash160 token = Runtime.getCallingScriptHash();
+        // Incoming cNEO is simply held until it is redeemed
+        if (cneoHash == null || token.equals(new Hash160(cneoHash))) {
+            return;
+        }
+
+        if (token.equals((new NeoToken()).getHash())) {
+            Contract.call(new Hash160(cneoHash), "reconcileNeoReserves", CallFlags.All, new Object[]{});
+        } else {
+            Contract.call(new Hash160(cneoHash), "reconcileBneoReserves", CallFlags.All, new Object[]{});
+        }
+    }
+}